@@ -0,0 +1,206 @@
+import webview.converter.DatabaseReader;
+import webview.converter.Page;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measure the queries Main loads the warehouse with and the queries behind every page of the site, on a copy of
+ * the database as it is shipped and on a copy set up by SQLiteTuning, with a write-ahead log and indexes.
+ * The orders, purchase orders and deliveries can be multiplied, each copy numbered after the last, so the
+ * lookups and joins the indexes serve are measured at a realistic size; the shipped tables hold 100 of each.
+ * Both copies are read through the prepared statement caches, so the difference is the database itself.
+ * The database is never changed, only the copies, which are deleted afterwards.
+ * Run from the project directory, with the SQLite driver on the class path:
+ * java -cp "out:lib/*" DatabaseBenchmark [scale] [repeats]
+ * @author Nathan Thompson - njt38
+ */
+public class DatabaseBenchmark {
+    // The database that is copied.
+    private static final Path DATABASE = Path.of("warehousedata.sqlite");
+    // The tables multiplied by the scale, with the column numbering their rows.
+    private static final List<List<String>> SCALED_TABLES = List.of(
+            List.of("customerOrders", "orderNumber"),
+            List.of("customerOrderItems", "orderNumber"),
+            List.of("purchaseOrders", "purchaseOrderNumber"),
+            List.of("purchaseOrderItems", "purchaseOrderNumber"),
+            List.of("deliveries", "deliveryNumber"),
+            List.of("deliveryItems", "deliveryNumber"));
+    // How far apart the numbers of each copy of the scaled tables are.
+    private static final int NUMBER_OFFSET = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Class.forName("org.sqlite.JDBC");
+        Path directory = Files.createTempDirectory("warehouse-bench");
+        try {
+            Path untuned = copy(directory.resolve("untuned.sqlite"), scale);
+            Path tuned = copy(directory.resolve("tuned.sqlite"), scale);
+            System.out.printf("%s x%d, %d repeats%n", DATABASE, scale, repeats);
+            System.out.printf("%-28s %12s %12s %12s %12s%n",
+                    "query", "before best", "before mean", "after best", "after mean");
+
+            try (DatabaseHandler before = new DatabaseHandler(untuned.toString(), false);
+                 DatabaseHandler after = new DatabaseHandler(tuned.toString(), true)) {
+                compare("Main load", repeats, () -> load(before), () -> load(after));
+                compare("readWarehouse", repeats, before::readWarehouse, after::readWarehouse);
+                compare("loadCustomerOrders", repeats,
+                        () -> before.loadCustomerOrders(false), () -> after.loadCustomerOrders(false));
+                compare("loadDeliveries", repeats,
+                        () -> before.loadDeliveries(true), () -> after.loadDeliveries(true));
+                compare("setCustomerOrderFulfilled", repeats,
+                        () -> fulfilAll(before), () -> fulfilAll(after));
+            }
+            try (DatabaseReader before = new DatabaseReader(untuned.toString(), true);
+                 DatabaseReader after = new DatabaseReader(tuned.toString(), true)) {
+                for (Page page : Page.ALL) {
+                    compare(page.name() + " page", repeats, () -> render(page, before), () -> render(page, after));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one of the measured operations.
+     */
+    private interface Operation {
+        /**
+         * Run the operation.
+         * @return What it produced, so that it is not optimised away.
+         * @throws Exception If it fails.
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * Copy the database, multiplying the scaled tables.
+     * @param file The copy.
+     * @param scale How many times the scaled tables are repeated.
+     * @return The copy.
+     */
+    private static Path copy(Path file, int scale) throws IOException, SQLException {
+        Files.copy(DATABASE, file);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            for (List<String> table : SCALED_TABLES) {
+                List<String> columns = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery("pragma table_info(" + table.get(0) + ")")) {
+                    while (resultSet.next()) {
+                        String column = resultSet.getString("name");
+                        columns.add(column.equals(table.get(1)) ? column + " + %d" : column);
+                    }
+                }
+                String select = String.join(", ", columns);
+                for (int copy = 1; copy < scale; copy++) {
+                    statement.executeUpdate(String.format("insert into %s select " + select + " from %s where %s < %d",
+                            table.get(0), copy * NUMBER_OFFSET, table.get(0), table.get(1), NUMBER_OFFSET));
+                }
+            }
+            connection.commit();
+        }
+        return file;
+    }
+
+    /**
+     * Load everything Main loads on startup, reading the warehouse table rather than a snapshot.
+     * @param databaseHandler The database.
+     * @return The number of orders and deliveries.
+     */
+    private static Object load(DatabaseHandler databaseHandler) throws SQLException {
+        databaseHandler.readParts();
+        databaseHandler.readWarehouse();
+        databaseHandler.readCustomers();
+        databaseHandler.readPartTypes();
+        return databaseHandler.loadCustomerOrders(false).getOrders().size()
+                + databaseHandler.loadPurchaseOrders(false).getOrders().size()
+                + databaseHandler.loadDeliveries(true).getDeliveries().size();
+    }
+
+    /**
+     * Set the fulfilled flag of the first customer orders, one update each, as picking them does.
+     * The flags are already set after the first run, which makes no difference to finding the rows.
+     * @param databaseHandler The database.
+     * @return The number of orders.
+     */
+    private static Object fulfilAll(DatabaseHandler databaseHandler) throws SQLException {
+        int count = 0;
+        for (CustomerOrder order : databaseHandler.loadCustomerOrders(false).getOrders()) {
+            if (order.getOrderNumber() < NUMBER_OFFSET) {
+                databaseHandler.setCustomerOrderFulfilled(order.getOrderNumber());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write a page.
+     * @param page The page.
+     * @param reader The database.
+     * @return The length of the page.
+     */
+    private static Object render(Page page, DatabaseReader reader) throws IOException {
+        StringWriter out = new StringWriter();
+        page.renderer().write(reader, out);
+        return out.getBuffer().length();
+    }
+
+    /**
+     * Run an operation on each database several times, after warming up, and report the best and mean times.
+     * @param name The name of the measurement.
+     * @param repeats The number of runs measured.
+     * @param before The operation on the database as shipped.
+     * @param after The operation on the tuned database.
+     */
+    private static void compare(String name, int repeats, Operation before, Operation after) throws Exception {
+        long[] untuned = measure(repeats, before);
+        long[] tuned = measure(repeats, after);
+        System.out.printf("%-28s %12.2f %12.2f %12.2f %12.2f%n", name,
+                untuned[0] / 1e6, untuned[1] / 1e6 / repeats, tuned[0] / 1e6, tuned[1] / 1e6 / repeats);
+    }
+
+    /**
+     * Run an operation several times, after warming up.
+     * @param repeats The number of runs measured.
+     * @param operation The operation.
+     * @return The best time and the total time, in nanoseconds.
+     */
+    private static long[] measure(int repeats, Operation operation) throws Exception {
+        int produced = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            produced += operation.run().hashCode();
+        }
+        long best = Long.MAX_VALUE, total = 0;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            long start = System.nanoTime();
+            produced += operation.run().hashCode();
+            long nanos = System.nanoTime() - start;
+            best = Math.min(best, nanos);
+            total += nanos;
+        }
+        if (produced == 42) {
+            System.out.println();
+        }
+        return new long[] {best, total};
+    }
+}
@@ -0,0 +1,102 @@
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Compare loading dates with the current Date against the previous Calendar based version.
+ * Both parse and format the same rows of dates in the database form.
+ * java -cp out DateParseBenchmark [rows]
+ * @author Nathan Thompson - njt38
+ */
+public class DateParseBenchmark {
+    // The number of times each measurement is repeated, keeping the fastest.
+    private static final int REPEATS = 7;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] dates = new String[rows];
+        Random rand = new Random(1);
+        for (int row = 0; row < rows; row++) {
+            dates[row] = String.format("%04d-%02d-%02d %02d:%02d:%02d", 2000 + rand.nextInt(30), 1 + rand.nextInt(12),
+                    1 + rand.nextInt(28), rand.nextInt(24), rand.nextInt(60), rand.nextInt(60));
+        }
+
+        long calendarParse = fastest(() -> {
+            long sink = 0;
+            for (String date : dates) {
+                sink += CalendarDate.decodeDate(date).hashCode();
+            }
+            return sink;
+        });
+        long dateParse = fastest(() -> {
+            long sink = 0;
+            for (String date : dates) {
+                sink += new Date(date).hashCode();
+            }
+            return sink;
+        });
+        Calendar[] calendars = new Calendar[rows];
+        Date[] parsed = new Date[rows];
+        for (int row = 0; row < rows; row++) {
+            calendars[row] = CalendarDate.decodeDate(dates[row]);
+            parsed[row] = new Date(dates[row]);
+        }
+        long calendarFormat = fastest(() -> {
+            long sink = 0;
+            for (Calendar calendar : calendars) {
+                sink += CalendarDate.format(calendar).length();
+            }
+            return sink;
+        });
+        long dateFormat = fastest(() -> {
+            long sink = 0;
+            for (Date date : parsed) {
+                sink += date.toString().length();
+            }
+            return sink;
+        });
+
+        System.out.printf("%,d rows%n", rows);
+        System.out.printf("%-8s %14s %14s %8s%n", "", "Calendar (ms)", "Date (ms)", "speedup");
+        System.out.printf("%-8s %14.1f %14.1f %7.1fx%n", "parse", calendarParse / 1e6, dateParse / 1e6, (double) calendarParse / dateParse);
+        System.out.printf("%-8s %14.1f %14.1f %7.1fx%n", "format", calendarFormat / 1e6, dateFormat / 1e6, (double) calendarFormat / dateFormat);
+    }
+
+    /**
+     * Time the task several times.
+     * @param task The task, returning a value so that its work is not optimised away.
+     * @return The fastest time in nanoseconds.
+     */
+    private static long fastest(java.util.function.LongSupplier task) {
+        long best = Long.MAX_VALUE;
+        long sink = 0;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            long start = System.nanoTime();
+            sink += task.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return best;
+    }
+
+    /**
+     * The previous Date implementation, backed by a Calendar.
+     */
+    private static class CalendarDate {
+        private static final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        static Calendar decodeDate(String dateAndTime) {
+            String[] parts = dateAndTime.split(" ");
+            String[] date = parts[0].split("-");
+            String[] time = parts[1].split(":");
+            return new GregorianCalendar(Integer.parseInt(date[0]),
+                    Integer.parseInt(date[1]) - 1, Integer.parseInt(date[2]),
+                    Integer.parseInt(time[0]), Integer.parseInt(time[1]), Integer.parseInt(time[2]));
+        }
+
+        static String format(Calendar calendar) {
+            return formatter.format(calendar.getTime());
+        }
+    }
+}
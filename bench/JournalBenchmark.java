@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measure what journalling costs the pickers, and how long rebuilding the warehouse from the journal takes.
+ * Each order is picked and then put back by a delivery, without a journal, with each order synced to disk
+ * before the next, with the journal left to commit every few milliseconds, and with several threads picking
+ * from a ConcurrentWarehouse and each syncing its own orders, so their fsyncs are shared.
+ * The journal is written to a temporary directory, which should be on the disk being measured.
+ * java -cp out JournalBenchmark [rows]x[cols] [fill] [orders] [threads]
+ * @author Nathan Thompson - njt38
+ */
+public class JournalBenchmark {
+    // The number of different part codes in the catalogue.
+    private static final int NUMBER_OF_PARTS = 200;
+    // The number of lines on each order.
+    private static final int LINES = 5;
+
+    /**
+     * Picks an order and puts it back.
+     */
+    private interface Picker {
+        /**
+         * Pick an order and put it back.
+         * @param order The order.
+         * @param returns The delivery putting it back.
+         * @throws IOException If the journal cannot be written.
+         */
+        void pick(CustomerOrder order, Delivery returns) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] rowsAndCols = (args.length > 0 ? args[0] : "200x300").split("x");
+        int numRows = Integer.parseInt(rowsAndCols[0]);
+        int numCols = Integer.parseInt(rowsAndCols[1]);
+        double fillRatio = args.length > 1 ? Double.parseDouble(args[1]) : 0.9;
+        int numberOfOrders = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        System.out.printf("%dx%d grid, %.2f full, %d orders of %d lines%n",
+                numRows, numCols, fillRatio, numberOfOrders, LINES);
+        System.out.printf("%-28s %12s %12s%n", "journal", "orders/s", "us/order");
+
+        Warehouse plain = warehouse(numRows, numCols, fillRatio, false);
+        run("none", plain, numberOfOrders, 1, (order, returns) -> {
+            plain.createAPickList(order);
+            plain.storeDelivery(returns);
+        });
+
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            Warehouse synced = warehouse(numRows, numCols, fillRatio, false);
+            try (WarehouseJournal journal = new WarehouseJournal(directory, 0, Long.MAX_VALUE)) {
+                journal.attach(synced);
+                run("sync every order", synced, numberOfOrders, 1, (order, returns) -> {
+                    synced.createAPickList(order);
+                    synced.storeDelivery(returns);
+                    journal.sync();
+                });
+            }
+
+            Warehouse grouped = warehouse(numRows, numCols, fillRatio, false);
+            try (WarehouseJournal journal = new WarehouseJournal(directory)) {
+                journal.attach(grouped);
+                run("commit every 10ms", grouped, numberOfOrders, 1, (order, returns) -> {
+                    grouped.createAPickList(order);
+                    grouped.storeDelivery(returns);
+                });
+            }
+
+            Warehouse shared = warehouse(numRows, numCols, fillRatio, true);
+            try (WarehouseJournal journal = new WarehouseJournal(directory, 0, Long.MAX_VALUE)) {
+                journal.attach(shared);
+                run("sync every order, " + threads + " threads", shared, numberOfOrders, threads, (order, returns) -> {
+                    shared.createAPickList(order);
+                    shared.storeDelivery(returns);
+                    journal.sync();
+                });
+            }
+
+            // The last journal holds every change since its snapshot, so this replays all of them.
+            long journalBytes;
+            try (Stream<Path> files = Files.list(directory)) {
+                journalBytes = files.mapToLong(file -> file.toFile().length()).sum();
+            }
+            Warehouse recovered = new Warehouse(numRows, numCols);
+            long start = System.nanoTime();
+            new WarehouseJournal(directory, 0, 0).recover(recovered);
+            long recoverNanos = System.nanoTime() - start;
+            for (Location location : shared.getPartLocations()) {
+                Batch expected = shared.getBatchAt(location);
+                Batch batch = recovered.getBatchAt(location);
+                if (batch == null || batch.getPartCode() != expected.getPartCode()
+                        || batch.getQuantity() != expected.getQuantity()) {
+                    throw new IllegalStateException("The recovered warehouse differs at " + location);
+                }
+            }
+            System.out.printf("recovered %d occupied locations from %d KB in %.1f ms%n",
+                    recovered.getPartLocations().size(), journalBytes / 1024, recoverNanos / 1e6);
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Create the synthetic warehouse, the same every time.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     * @param fillRatio The fraction of locations that are occupied.
+     * @param concurrent Whether to copy it into a ConcurrentWarehouse.
+     * @return The warehouse.
+     */
+    private static Warehouse warehouse(int numRows, int numCols, double fillRatio, boolean concurrent) {
+        Warehouse generated = new WorkloadGenerator(NUMBER_OF_PARTS, 42)
+                .warehouse(numRows, numCols, fillRatio, new ObjectGridStorage(numRows * numCols));
+        if (!concurrent) {
+            return generated;
+        }
+        Warehouse warehouse = new ConcurrentWarehouse(numRows, numCols);
+        for (Location location : generated.getPartLocations()) {
+            warehouse.addToWarehouse(location, generated.getBatchAt(location));
+        }
+        return warehouse;
+    }
+
+    /**
+     * Pick the orders, shared out between the threads, and report the rate.
+     * @param name The name of the measurement.
+     * @param warehouse The warehouse picked from.
+     * @param numberOfOrders The number of orders.
+     * @param threads The number of threads.
+     * @param picker Picks each order and puts it back.
+     */
+    private static void run(String name, Warehouse warehouse, int numberOfOrders, int threads, Picker picker)
+            throws InterruptedException {
+        WorkloadGenerator orders = new WorkloadGenerator(NUMBER_OF_PARTS, 7);
+        List<List<CustomerOrder>> work = new ArrayList<>();
+        List<List<Delivery>> returns = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            work.add(new ArrayList<>());
+            returns.add(new ArrayList<>());
+        }
+        for (int count = 0; count < numberOfOrders; count++) {
+            CustomerOrder order = orders.customerOrder(LINES);
+            work.get(count % threads).add(order);
+            returns.get(count % threads).add(orders.deliveryFor(order));
+        }
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            List<CustomerOrder> mine = work.get(thread);
+            List<Delivery> myReturns = returns.get(thread);
+            workers.add(new Thread(() -> {
+                try {
+                    for (int index = 0; index < mine.size(); index++) {
+                        picker.pick(mine.get(index), myReturns.get(index));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException(name + " failed", failures.get(0));
+        }
+        warehouse.verifyIndexes();
+        System.out.printf("%-28s %12.0f %12.1f%n", name, numberOfOrders / seconds, seconds * 1e6 / numberOfOrders);
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.*;
+
+/**
+ * Measure how much shorter the optimised pick routes are than walking the pick lists from createAPickList.
+ * Two copies of the same synthetic warehouse pick the same orders, one each way, and the walks are measured
+ * from the same depot.
+ * java -cp out PickRouteSaving [rows]x[cols] [fill] [lines] [orders] [budget in microseconds]
+ * @author Nathan Thompson - njt38
+ */
+public class PickRouteSaving {
+    // The number of different part codes in the catalogue.
+    private static final int NUMBER_OF_PARTS = 200;
+
+    public static void main(String[] args) {
+        String[] rowsAndCols = (args.length > 0 ? args[0] : "20x30").split("x");
+        int numRows = Integer.parseInt(rowsAndCols[0]);
+        int numCols = Integer.parseInt(rowsAndCols[1]);
+        double fillRatio = args.length > 1 ? Double.parseDouble(args[1]) : 0.9;
+        int lines = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int numberOfOrders = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        long budgetNanos = (args.length > 4 ? Long.parseLong(args[4]) : 1000) * 1000;
+
+        Warehouse scanned = new WorkloadGenerator(NUMBER_OF_PARTS, 42)
+                .warehouse(numRows, numCols, fillRatio, new ObjectGridStorage(numRows * numCols));
+        Warehouse optimised = new WorkloadGenerator(NUMBER_OF_PARTS, 42)
+                .warehouse(numRows, numCols, fillRatio, new ObjectGridStorage(numRows * numCols));
+        WorkloadGenerator orders = new WorkloadGenerator(NUMBER_OF_PARTS, 7);
+        PickRouteOptimiser optimiser = new PickRouteOptimiser(new Location(0, 0), budgetNanos);
+
+        long scannedLength = 0, optimisedLength = 0, optimiseNanos = 0;
+        for (int count = 0; count < numberOfOrders; count++) {
+            CustomerOrder order = orders.customerOrder(lines);
+            Delivery returns = orders.deliveryFor(order);
+            scannedLength += optimiser.lengthOf(scanned.createAPickList(order));
+            long start = System.nanoTime();
+            optimisedLength += optimised.createPickRoute(order, optimiser).length();
+            optimiseNanos += System.nanoTime() - start;
+            // Put the stock back so that neither warehouse runs dry.
+            scanned.storeDelivery(returns);
+            optimised.storeDelivery(returns);
+        }
+
+        System.out.printf("%dx%d grid, %.2f full, %d lines, %d orders, %d us budget%n",
+                numRows, numCols, fillRatio, lines, numberOfOrders, budgetNanos / 1000);
+        System.out.printf("createAPickList walk  %10.1f per order%n", (double) scannedLength / numberOfOrders);
+        System.out.printf("createPickRoute walk  %10.1f per order (%.1f%% shorter)%n",
+                (double) optimisedLength / numberOfOrders, 100.0 * (scannedLength - optimisedLength) / scannedLength);
+        System.out.printf("createPickRoute time  %10.1f us per order%n", optimiseNanos / 1000.0 / numberOfOrders);
+    }
+}
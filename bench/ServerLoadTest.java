@@ -0,0 +1,123 @@
+import webview.WarehouseServer;
+import webview.converter.Config;
+import webview.converter.DatabaseReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure how many requests a second the WarehouseServer answers, as a crowd of terminals polling one page.
+ * The server runs in this process on a free port, and each client thread sends requests one after another
+ * over a kept-alive connection. Two kinds of request are measured: fetching the whole gzipped page, and
+ * asking whether it has changed with the ETag from an earlier fetch, which the server answers with a 304.
+ * Run from the project directory, with the SQLite driver on the class path:
+ * java -cp "out:lib/*" ServerLoadTest [clients] [seconds] [page]
+ * Add -Dsun.net.httpserver.nodelay=true to measure without the delay Nagle's algorithm adds on loopback.
+ * @author Nathan Thompson - njt38
+ */
+public class ServerLoadTest {
+    // How long the server is warmed up for before each measurement.
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        long measureNanos = (args.length > 1 ? Long.parseLong(args[1]) : 5) * 1_000_000_000L;
+        String page = args.length > 2 ? args[2] : Config.WAREHOUSE;
+
+        Class.forName("org.sqlite.JDBC");
+        try (DatabaseReader reader = new DatabaseReader(Config.SQLDatabase, true)) {
+            WarehouseServer server = new WarehouseServer(reader, Config.SQLDatabase, Config.SITE_ADDRESS);
+            server.start(0);
+            try {
+                URI uri = URI.create("http://localhost:" + server.getPort() + "/" + page);
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                HttpResponse<byte[]> first = client.send(
+                        HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").build(),
+                        HttpResponse.BodyHandlers.ofByteArray());
+                String etag = first.headers().firstValue("ETag").orElseThrow();
+                System.out.printf("%s: %d bytes gzipped, ETag %s, %d clients%n",
+                        page, first.body().length, etag, clients);
+                System.out.printf("%-12s %12s %12s %8s %8s %8s%n",
+                        "request", "requests/s", "mean us", "status", "failed", "queries");
+
+                HttpRequest full = HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").build();
+                HttpRequest revalidate = HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip")
+                        .header("If-None-Match", etag).build();
+                measure("full page", client, full, clients, measureNanos, reader);
+                measure("revalidate", client, revalidate, clients, measureNanos, reader);
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Send the request from every client for a while, and report the rate, the mean time for each request,
+     * the status returned, the requests that failed and the queries the server made meanwhile.
+     * @param name The name of the measurement.
+     * @param client The HTTP client.
+     * @param request The request.
+     * @param clients The number of client threads.
+     * @param measureNanos How long to measure for.
+     * @param reader The server's database reader.
+     */
+    private static void measure(String name, HttpClient client, HttpRequest request, int clients,
+                                long measureNanos, DatabaseReader reader) throws InterruptedException {
+        run(client, request, clients, WARMUP_NANOS, new AtomicLong(), new AtomicLong(), new AtomicLong());
+        AtomicLong count = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong status = new AtomicLong();
+        int queries = reader.getQueryCount();
+        long start = System.nanoTime();
+        run(client, request, clients, measureNanos, count, failures, status);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-12s %12.0f %12.1f %8d %8d %8d%n", name, count.get() / seconds,
+                seconds * clients * 1e6 / count.get(), status.get(), failures.get(), reader.getQueryCount() - queries);
+    }
+
+    /**
+     * Send the request from every client, one after another, until the time is up.
+     * @param client The HTTP client.
+     * @param request The request.
+     * @param clients The number of client threads.
+     * @param nanos How long to run for.
+     * @param count Counts the responses.
+     * @param failures Counts the requests that got no response.
+     * @param status Set to the status of the responses.
+     */
+    private static void run(HttpClient client, HttpRequest request, int clients, long nanos,
+                            AtomicLong count, AtomicLong failures, AtomicLong status) throws InterruptedException {
+        long end = System.nanoTime() + nanos;
+        List<Thread> threads = new ArrayList<>();
+        for (int thread = 0; thread < clients; thread++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        try {
+                            HttpResponse<byte[]> response =
+                                    client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                            status.set(response.statusCode());
+                            count.incrementAndGet();
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure how long loading a warehouse takes from a WarehouseSnapshot, against building it the way
+ * DatabaseHandler.readWarehouse does from the rows of the warehouse table: splitting each location string,
+ * parsing the row and column, and adding a new Location and Batch. The rows are held in memory, so the time
+ * SQLite takes to produce them is not counted and the real saving is larger.
+ * java -cp out SnapshotLoad [rows]x[cols] [fill] [repeats]
+ * @author Nathan Thompson - njt38
+ */
+public class SnapshotLoad {
+    // The number of different part codes in the catalogue.
+    private static final int NUMBER_OF_PARTS = 200;
+
+    /**
+     * A row of the warehouse table.
+     * @param location The location, as "row,col".
+     * @param partCode The part code.
+     * @param quantity The quantity.
+     */
+    private record Row(String location, int partCode, int quantity) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] rowsAndCols = (args.length > 0 ? args[0] : "1000x1000").split("x");
+        int numRows = Integer.parseInt(rowsAndCols[0]);
+        int numCols = Integer.parseInt(rowsAndCols[1]);
+        double fillRatio = args.length > 1 ? Double.parseDouble(args[1]) : 0.9;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Warehouse warehouse = new WorkloadGenerator(NUMBER_OF_PARTS, 42)
+                .warehouse(numRows, numCols, fillRatio, new ObjectGridStorage(numRows * numCols));
+        List<Row> rows = new ArrayList<>();
+        for (Location location : warehouse.getPartLocations()) {
+            Batch batch = warehouse.getBatchAt(location);
+            rows.add(new Row(location.row() + "," + location.col(), batch.getPartCode(), batch.getQuantity()));
+        }
+        Path file = Files.createTempFile("warehouse", ".snapshot");
+        try {
+            WarehouseSnapshot.write(warehouse, file, 1);
+            System.out.printf("%dx%d grid, %.2f full, %d rows, snapshot of %d KB%n",
+                    numRows, numCols, fillRatio, rows.size(), Files.size(file) / 1024);
+            System.out.printf("%-24s %10s %10s%n", "load", "best ms", "mean ms");
+            measure("table rows", repeats, () -> {
+                Warehouse built = new Warehouse(numRows, numCols);
+                for (Row row : rows) {
+                    String[] rowCol = row.location().trim().split(",");
+                    built.addToWarehouse(new Location(Integer.parseInt(rowCol[0]), Integer.parseInt(rowCol[1])),
+                            new Batch(row.partCode(), row.quantity()));
+                }
+                return built;
+            });
+            measure("snapshot, object", repeats,
+                    () -> WarehouseSnapshot.read(file, 1, new ObjectGridStorage(numRows * numCols)));
+            measure("snapshot, packed", repeats,
+                    () -> WarehouseSnapshot.read(file, 1, new PackedGridStorage(numRows * numCols)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Loads a warehouse.
+     */
+    private interface Loader {
+        /**
+         * Load the warehouse.
+         * @return The warehouse.
+         * @throws Exception If it cannot be loaded.
+         */
+        Warehouse load() throws Exception;
+    }
+
+    /**
+     * Load the warehouse several times, after warming up, and report the best and mean times.
+     * @param name The name of the measurement.
+     * @param repeats The number of loads measured.
+     * @param loader Loads the warehouse.
+     */
+    private static void measure(String name, int repeats, Loader loader) throws Exception {
+        int occupied = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            occupied += loader.load().getPartLocations().size();
+        }
+        long best = Long.MAX_VALUE, total = 0;
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            long start = System.nanoTime();
+            Warehouse loaded = loader.load();
+            long nanos = System.nanoTime() - start;
+            best = Math.min(best, nanos);
+            total += nanos;
+            occupied += loaded.freeSlotCount();
+        }
+        System.out.printf("%-24s %10.1f %10.1f%n", name, best / 1e6, total / 1e6 / repeats);
+        if (occupied == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Compare the heap used by a full warehouse with batch object storage and with packed storage.
+ * Run with a fixed heap, e.g. java -Xms2g -Xmx2g -cp out StorageFootprint
+ * @author Nathan Thompson - njt38
+ */
+public class StorageFootprint {
+    // The number of different part codes spread over the grid.
+    private static final int NUMBER_OF_PARTS = 200;
+    // Keeps the measured object reachable until after it has been measured.
+    private static Object keep;
+
+    public static void main(String[] args) {
+        // Grids of 600, 60k and 1M slots.
+        int[][] sizes = {{20, 30}, {200, 300}, {1000, 1000}};
+        System.out.printf("%10s %14s %14s %14s %14s%n", "slots", "Batch[] grid", "int[] grid", "object house", "packed house");
+        for (int[] size : sizes) {
+            int slots = size[0] * size[1];
+            long objectGrid = measure(() -> fill(new ObjectGridStorage(slots)));
+            long packedGrid = measure(() -> fill(new PackedGridStorage(slots)));
+            long objectWarehouse = measure(() -> fill(size[0], size[1], ObjectGridStorage::new));
+            long packedWarehouse = measure(() -> fill(size[0], size[1], PackedGridStorage::new));
+            System.out.printf("%10d %14s %14s %14s %14s%n", slots, format(objectGrid), format(packedGrid),
+                    format(objectWarehouse), format(packedWarehouse));
+        }
+    }
+
+    /**
+     * Fill every slot of the storage with a batch.
+     * @param storage The storage.
+     * @return The storage.
+     */
+    private static GridStorage fill(GridStorage storage) {
+        Random rand = new Random(1);
+        for (int slot = 0; slot < storage.size(); slot++) {
+            storage.put(slot, new Batch(1 + rand.nextInt(NUMBER_OF_PARTS), 1 + rand.nextInt(500)));
+        }
+        return storage;
+    }
+
+    /**
+     * Fill every location of a warehouse, including its part indexes.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     * @param storage Creates the storage for the given number of slots.
+     * @return The warehouse.
+     */
+    private static Warehouse fill(int numRows, int numCols, IntFunction<GridStorage> storage) {
+        Random rand = new Random(1);
+        Warehouse warehouse = new Warehouse(numRows, numCols, storage.apply(numRows * numCols));
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                warehouse.addToWarehouse(new Location(row, col), new Batch(1 + rand.nextInt(NUMBER_OF_PARTS), 1 + rand.nextInt(500)));
+            }
+        }
+        return warehouse;
+    }
+
+    /**
+     * Measure the growth in the used heap while the object made by the supplier is reachable.
+     * @param supplier Makes the object to measure.
+     * @return The number of bytes used.
+     */
+    private static long measure(java.util.function.Supplier<Object> supplier) {
+        long before = usedHeap();
+        keep = supplier.get();
+        long after = usedHeap();
+        keep = null;
+        return after - before;
+    }
+
+    /**
+     * Returns the used heap after asking for garbage collection.
+     * @return The number of bytes in use.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Format a number of bytes in KB or MB.
+     * @param bytes The number of bytes.
+     * @return The formatted size.
+     */
+    private static String format(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,266 @@
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Measure the cost of the Warehouse hot paths as the grid, fill ratio and order size change.
+ * Each benchmark is warmed up before it is measured, and the results are reported in nanoseconds per operation.
+ *
+ * Parameters are given as comma separated lists, for example:
+ * java -cp out WarehouseBenchmark --grid 20x30,200x300 --fill 0.5,0.9 --lines 5,40 --storage object,packed
+ * @author Nathan Thompson - njt38
+ */
+public class WarehouseBenchmark {
+    // The number of warm up and measured iterations.
+    private static final int WARMUP_ITERATIONS = 3, MEASURED_ITERATIONS = 5;
+    // How long each iteration runs for.
+    private static final long ITERATION_NANOS = 200_000_000L;
+    // The number of different orders cycled through by each benchmark.
+    private static final int WORKLOAD_SIZE = 256;
+    // The number of orders picked together by the wave benchmark.
+    private static final int WAVE_SIZE = 16;
+    // The number of open orders checked by the shortfall benchmark.
+    private static final int OPEN_ORDERS = 50_000;
+    // Results are added to this so that the work cannot be optimised away.
+    private static long sink;
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        List<String> grids = List.of(options.getOrDefault("grid", "20x30,200x300").split(","));
+        List<String> fills = List.of(options.getOrDefault("fill", "0.5,0.9").split(","));
+        List<String> lines = List.of(options.getOrDefault("lines", "5,40").split(","));
+        List<String> storages = List.of(options.getOrDefault("storage", "object").split(","));
+        int numberOfParts = Integer.parseInt(options.getOrDefault("parts", "200"));
+        Set<String> only = options.containsKey("only") ? Set.of(options.get("only").split(",")) : null;
+
+        System.out.printf("%-20s %10s %5s %6s %8s %14s %12s%n",
+                "benchmark", "grid", "fill", "lines", "storage", "ns/op", "error");
+        for (String grid : grids) {
+            String[] rowsAndCols = grid.split("x");
+            int numRows = Integer.parseInt(rowsAndCols[0]);
+            int numCols = Integer.parseInt(rowsAndCols[1]);
+            for (String fill : fills) {
+                for (String orderLines : lines) {
+                    for (String storage : storages) {
+                        String label = String.format("%10s %5s %6s %8s", grid, fill, orderLines, storage);
+                        Fixture fixture = new Fixture(numRows, numCols, Double.parseDouble(fill),
+                                Integer.parseInt(orderLines), storage, numberOfParts);
+                        for (Map.Entry<String, Benchmark> benchmark : fixture.benchmarks().entrySet()) {
+                            if (only == null || only.contains(benchmark.getKey())) {
+                                report(benchmark.getKey(), label, run(benchmark.getValue()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * A single benchmarked operation.
+     * The undo step puts the warehouse back as it was and is not timed.
+     * @param operation The operation to time.
+     * @param undo The untimed step run after each operation, or null if there is none.
+     */
+    private record Benchmark(LongSupplier operation, Runnable undo) {
+    }
+
+    /**
+     * A warehouse and workload for one combination of parameters.
+     */
+    private static class Fixture {
+        private final Warehouse warehouse;
+        private final AllParts allParts;
+        private final int[] partCodes = new int[WORKLOAD_SIZE];
+        private final CustomerOrder[] orders = new CustomerOrder[WORKLOAD_SIZE];
+        private final Delivery[] deliveries = new Delivery[WORKLOAD_SIZE];
+        private final List<CustomerOrder> openOrders = new ArrayList<>(OPEN_ORDERS);
+        // What each occupied location held before any benchmark ran, which every undo step returns it to.
+        private final Map<Location, Batch> initial = new HashMap<>();
+        private int next;
+        private List<PickListItem> lastPickList;
+        private List<Location> lastStored;
+        private Wave lastWave;
+        private final PickRouteOptimiser optimiser = new PickRouteOptimiser();
+
+        Fixture(int numRows, int numCols, double fillRatio, int lines, String storage, int numberOfParts) {
+            WorkloadGenerator generator = new WorkloadGenerator(numberOfParts, 42);
+            GridStorage gridStorage = storage.equals("packed")
+                    ? new PackedGridStorage(numRows * numCols) : new ObjectGridStorage(numRows * numCols);
+            warehouse = generator.warehouse(numRows, numCols, fillRatio, gridStorage);
+            allParts = generator.parts();
+            for (int index = 0; index < WORKLOAD_SIZE; index++) {
+                partCodes[index] = generator.randomPartCode();
+                orders[index] = generator.customerOrder(lines);
+                deliveries[index] = generator.delivery(lines);
+            }
+            for (Location location : warehouse.getPartLocations()) {
+                Batch batch = warehouse.getBatchAt(location);
+                initial.put(location, new Batch(batch.getPartCode(), batch.getQuantity()));
+            }
+            for (int index = 0; index < OPEN_ORDERS; index++) {
+                openOrders.add(orders[index % WORKLOAD_SIZE]);
+            }
+        }
+
+        /**
+         * Returns the benchmarks for this fixture, by name.
+         * @return The benchmarks.
+         */
+        Map<String, Benchmark> benchmarks() {
+            Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+            benchmarks.put("getPartCount", new Benchmark(() -> warehouse.getPartCount(partCodes[nextIndex()]), null));
+            benchmarks.put("findPart", new Benchmark(() -> warehouse.findPart(partCodes[nextIndex()]).size(), null));
+            benchmarks.put("canBeFilled", new Benchmark(() -> warehouse.canBeFilled(orders[nextIndex()]) ? 1 : 0, null));
+            // Each call takes milliseconds, so it is timed on its own with nothing to undo.
+            benchmarks.put("findShortfalls", new Benchmark(
+                    () -> warehouse.findShortfalls(openOrders).size(), () -> { }));
+            benchmarks.put("createAPickList", new Benchmark(
+                    () -> {
+                        lastPickList = warehouse.createAPickList(orders[nextIndex()]);
+                        return lastPickList.size();
+                    },
+                    () -> restore(lastPickList)));
+            benchmarks.put("createPickRoute", new Benchmark(
+                    () -> {
+                        PickRoute route = warehouse.createPickRoute(orders[nextIndex()], optimiser);
+                        lastPickList = route.pickList();
+                        return route.length();
+                    },
+                    () -> restore(lastPickList)));
+            benchmarks.put("storeDelivery", new Benchmark(
+                    () -> {
+                        lastStored = warehouse.storeDelivery(deliveries[nextIndex()]);
+                        return lastStored.size();
+                    },
+                    () -> {
+                        for (Location location : lastStored) {
+                            restore(location);
+                        }
+                    }));
+            benchmarks.put("createWavePickLists", new Benchmark(
+                    () -> {
+                        List<CustomerOrder> wave = new ArrayList<>(WAVE_SIZE);
+                        for (int i = 0; i < WAVE_SIZE; i++) {
+                            wave.add(orders[nextIndex()]);
+                        }
+                        lastWave = warehouse.createWavePickLists(wave);
+                        return lastWave.route().size();
+                    },
+                    () -> restore(lastWave.route())));
+            benchmarks.put("createRestockOrder", new Benchmark(() -> {
+                PurchaseOrder restockOrder = warehouse.createRestockOrder(allParts);
+                return restockOrder == null ? 0 : restockOrder.getAllBatches().getBatches().size();
+            }, null));
+            return benchmarks;
+        }
+
+        /**
+         * Move on to the next order or part code in the workload.
+         * @return The index of the workload item to use.
+         */
+        private int nextIndex() {
+            next = (next + 1) % WORKLOAD_SIZE;
+            return next;
+        }
+
+        /**
+         * Put back the stock picked for a pick list, in the locations it was picked from.
+         * @param pickList The pick list.
+         */
+        private void restore(List<PickListItem> pickList) {
+            for (PickListItem item : pickList) {
+                restore(item.theLocation());
+            }
+        }
+
+        /**
+         * Put a location back as it was before any benchmark ran, so that the fill ratio never drifts.
+         * @param location The location.
+         */
+        private void restore(Location location) {
+            Batch batch = initial.get(location);
+            warehouse.addToWarehouse(location, batch == null ? null : new Batch(batch.getPartCode(), batch.getQuantity()));
+        }
+    }
+
+    /**
+     * Warm up and then measure the benchmark.
+     * @param benchmark The benchmark.
+     * @return The nanoseconds per operation of each measured iteration.
+     */
+    private static double[] run(Benchmark benchmark) {
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            iteration(benchmark);
+        }
+        double[] results = new double[MEASURED_ITERATIONS];
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            results[iteration] = iteration(benchmark);
+        }
+        return results;
+    }
+
+    /**
+     * Run the benchmark repeatedly for one iteration.
+     * Operations without an undo step are timed in groups to keep the cost of reading the clock out of the result.
+     * @param benchmark The benchmark.
+     * @return The nanoseconds per operation.
+     */
+    private static double iteration(Benchmark benchmark) {
+        long timed = 0, operations = 0;
+        long end = System.nanoTime() + ITERATION_NANOS;
+        while (System.nanoTime() < end) {
+            if (benchmark.undo() == null) {
+                long start = System.nanoTime();
+                for (int i = 0; i < 1000; i++) {
+                    sink += benchmark.operation().getAsLong();
+                }
+                timed += System.nanoTime() - start;
+                operations += 1000;
+            } else {
+                long start = System.nanoTime();
+                sink += benchmark.operation().getAsLong();
+                timed += System.nanoTime() - start;
+                operations++;
+                benchmark.undo().run();
+            }
+        }
+        return (double) timed / operations;
+    }
+
+    /**
+     * Print the mean and the 99.9% confidence interval of the results.
+     * @param name The benchmark name.
+     * @param label The parameters.
+     * @param results The nanoseconds per operation of each iteration.
+     */
+    private static void report(String name, String label, double[] results) {
+        double mean = Arrays.stream(results).average().orElse(0);
+        double variance = 0;
+        for (double result : results) {
+            variance += (result - mean) * (result - mean);
+        }
+        variance /= results.length - 1;
+        // Student's t for 99.9% confidence with 4 degrees of freedom.
+        double error = 8.610 * Math.sqrt(variance / results.length);
+        System.out.printf("%-20s %s %14.1f %12.1f%n", name, label, mean, error);
+    }
+
+    /**
+     * Read options of the form --name value.
+     * @param args The command line arguments.
+     * @return The options by name.
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int index = 0; index + 1 < args.length; index += 2) {
+            if (!args[index].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but found " + args[index]);
+            }
+            options.put(args[index].substring(2), args[index + 1]);
+        }
+        return options;
+    }
+}
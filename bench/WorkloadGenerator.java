@@ -0,0 +1,116 @@
+import java.util.Random;
+
+/**
+ * Generate synthetic warehouses, customer orders and deliveries for benchmarking.
+ * The same seed always produces the same workload.
+ * @author Nathan Thompson - njt38
+ */
+public class WorkloadGenerator {
+    // The most boxes in any location of the warehouse.
+    private static final int MAX_AMOUNT = 500;
+    // The most boxes of a part on one order or delivery line.
+    private static final int MAX_LINE_QUANTITY = 100;
+    // The number of different part codes, numbered from 1.
+    private final int numberOfParts;
+    // Random numbers for the workload.
+    private final Random rand;
+    // The number given to the next order or delivery.
+    private int nextOrderNumber = 1;
+
+    /**
+     * Create a generator for a catalogue of the given number of parts.
+     * @param numberOfParts The number of part codes.
+     * @param seed The random seed.
+     */
+    public WorkloadGenerator(int numberOfParts, long seed) {
+        this.numberOfParts = numberOfParts;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * Create a catalogue of all the part codes.
+     * @return All the parts.
+     */
+    public AllParts parts() {
+        AllParts allParts = new AllParts();
+        for (int partCode = 1; partCode <= numberOfParts; partCode++) {
+            allParts.addPart(new Part(partCode, "TYPE", "Manufacturer " + partCode, "Part " + partCode, 9.99));
+        }
+        return allParts;
+    }
+
+    /**
+     * Create a warehouse with the given fraction of its locations holding a batch of a random part.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     * @param fillRatio The fraction of locations that are occupied.
+     * @param storage Empty storage for the grid.
+     * @return The warehouse.
+     */
+    public Warehouse warehouse(int numRows, int numCols, double fillRatio, GridStorage storage) {
+        Warehouse warehouse = new Warehouse(numRows, numCols, storage);
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                if (rand.nextDouble() < fillRatio) {
+                    warehouse.addToWarehouse(new Location(row, col), new Batch(randomPartCode(), 1 + rand.nextInt(MAX_AMOUNT)));
+                }
+            }
+        }
+        return warehouse;
+    }
+
+    /**
+     * Create an unfulfilled customer order for the given number of different parts.
+     * @param lines The number of order lines.
+     * @return The customer order.
+     */
+    public CustomerOrder customerOrder(int lines) {
+        CustomerOrder order = new CustomerOrder(nextOrderNumber++, 1 + rand.nextInt(100), Date.getNow(), false);
+        addLines(order, lines);
+        return order;
+    }
+
+    /**
+     * Create an unfulfilled delivery of the given number of different parts.
+     * @param lines The number of delivery lines.
+     * @return The delivery.
+     */
+    public Delivery delivery(int lines) {
+        Delivery delivery = new Delivery(nextOrderNumber++, Date.getNow(), false);
+        addLines(delivery, lines);
+        return delivery;
+    }
+
+    /**
+     * Create a delivery that puts back exactly what the customer order takes out.
+     * @param order The customer order.
+     * @return The delivery.
+     */
+    public Delivery deliveryFor(CustomerOrder order) {
+        Delivery delivery = new Delivery(nextOrderNumber++, Date.getNow(), false);
+        for (Batch batch : order.getAllBatches().getBatches()) {
+            delivery.addBatch(new Batch(batch.getPartCode(), batch.getQuantity()));
+        }
+        return delivery;
+    }
+
+    /**
+     * Returns a random part code from the catalogue.
+     * @return The part code.
+     */
+    public int randomPartCode() {
+        return 1 + rand.nextInt(numberOfParts);
+    }
+
+    /**
+     * Add lines for distinct random parts to the order.
+     * @param order The order.
+     * @param lines The number of lines.
+     */
+    private void addLines(Order order, int lines) {
+        lines = Math.min(lines, numberOfParts);
+        while (order.getAllBatches().getBatches().size() < lines) {
+            order.addBatch(new Batch(randomPartCode(), 1 + rand.nextInt(MAX_LINE_QUANTITY)));
+        }
+    }
+}
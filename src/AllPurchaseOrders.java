@@ -14,6 +14,14 @@ public class AllPurchaseOrders extends AllEntities<PurchaseOrder> {
         orders.put(order.getOrderNumber(), order);
     }
 
+    /**
+     * Returns all the purchase orders in the tree map as a collection.
+     * @return
+     */
+    public Collection<PurchaseOrder> getOrders() {
+        return orders.values();
+    }
+
     /**
      * Gets a purchase order from the tree map by order number.
      * @param orderNumber
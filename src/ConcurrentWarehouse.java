@@ -0,0 +1,279 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A warehouse that several pickers and receivers can use at once from different threads.
+ * Each part code belongs to one of a fixed number of lock stripes, and picking or storing only locks the stripes
+ * of the parts on the order or delivery, so work on different parts goes ahead in parallel. A part's locations
+ * are always searched and changed under its stripe, and the shared record of empty and changed slots has a
+ * lock of its own that is only held for a moment.
+ * Operations that look at the whole grid lock every stripe, so they wait for the others to finish.
+ * @author Nathan Thompson - njt38
+ */
+public class ConcurrentWarehouse extends Warehouse {
+    // The number of lock stripes, one bit of a long each.
+    private static final int STRIPES = 64;
+    // The locks guarding the parts in each stripe.
+    private final ReentrantLock[] partLocks = new ReentrantLock[STRIPES];
+    // Guards the empty and changed slot records.
+    private final Object slotLock = new Object();
+
+    /**
+     * Create an empty warehouse of the given number of rows and columns.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     */
+    public ConcurrentWarehouse(int numRows, int numCols) {
+        this(numRows, numCols, new ObjectGridStorage(numRows * numCols));
+    }
+
+    /**
+     * Create an empty warehouse of the given number of rows and columns that keeps its batches in the given storage.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     * @param storage Empty storage with a slot for every location.
+     */
+    public ConcurrentWarehouse(int numRows, int numCols, GridStorage storage) {
+        super(numRows, numCols, storage);
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            partLocks[stripe] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public List<PickListItem> createAPickList(CustomerOrder order) {
+        return withStripes(stripesOf(order.getAllBatches()), () -> super.createAPickList(order));
+    }
+
+    @Override
+    public boolean canBeFilled(CustomerOrder customerOrder) {
+        return withStripes(stripesOf(customerOrder.getAllBatches()), () -> super.canBeFilled(customerOrder));
+    }
+
+    @Override
+    public Reservation reserve(CustomerOrder customerOrder) {
+        return withStripes(stripesOf(customerOrder.getAllBatches()), () -> super.reserve(customerOrder));
+    }
+
+    @Override
+    List<PickListItem> commitReservation(Reservation reservation) {
+        return withStripes(stripesOf(reservation.getQuantities().keySet()), () -> super.commitReservation(reservation));
+    }
+
+    @Override
+    void releaseReservation(Reservation reservation) {
+        withStripes(stripesOf(reservation.getQuantities().keySet()), () -> {
+            super.releaseReservation(reservation);
+            return null;
+        });
+    }
+
+    @Override
+    public PickRoute createPickRoute(CustomerOrder order, PickRouteOptimiser optimiser) {
+        return withStripes(stripesOf(order.getAllBatches()), () -> super.createPickRoute(order, optimiser));
+    }
+
+    @Override
+    public List<Location> storeDelivery(Delivery delivery) {
+        return withStripes(stripesOf(delivery.getAllBatches()), () -> super.storeDelivery(delivery));
+    }
+
+    @Override
+    public int slotsNeeded(Delivery delivery) {
+        return withStripes(stripesOf(delivery.getAllBatches()), () -> super.slotsNeeded(delivery));
+    }
+
+    @Override
+    public List<Location> findPart(int partCode) {
+        return withStripes(1L << stripeOf(partCode), () -> super.findPart(partCode));
+    }
+
+    @Override
+    public Wave createWavePickLists(Collection<CustomerOrder> orders) {
+        return withStripes(-1L, () -> super.createWavePickLists(orders));
+    }
+
+    @Override
+    public void addToWarehouse(Location location, Batch batch) {
+        withStripes(-1L, () -> {
+            super.addToWarehouse(location, batch);
+            return null;
+        });
+    }
+
+    @Override
+    public void printOccupiedLocations() {
+        withStripes(-1L, () -> {
+            super.printOccupiedLocations();
+            return null;
+        });
+    }
+
+    @Override
+    public ArrayList<Location> getPartLocations() {
+        return withStripes(-1L, super::getPartLocations);
+    }
+
+    @Override
+    public Batch getBatchAt(Location location) {
+        return withStripes(-1L, () -> super.getBatchAt(location));
+    }
+
+    @Override
+    public List<Integer> getAvailablePartCodes() {
+        return withStripes(-1L, super::getAvailablePartCodes);
+    }
+
+    @Override
+    public List<Location> getChangedLocations() {
+        return withStripes(-1L, super::getChangedLocations);
+    }
+
+    @Override
+    public void markClean() {
+        withStripes(-1L, () -> {
+            super.markClean();
+            return null;
+        });
+    }
+
+    @Override
+    public WarehouseChanges drainChanges() {
+        return withStripes(-1L, () -> {
+            synchronized (slotLock) {
+                return super.drainChanges();
+            }
+        });
+    }
+
+    @Override
+    public void restoreChanges(WarehouseChanges changes) {
+        withStripes(-1L, () -> {
+            synchronized (slotLock) {
+                super.restoreChanges(changes);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void setJournal(WarehouseJournal journal) {
+        withStripes(-1L, () -> {
+            super.setJournal(journal);
+            return null;
+        });
+    }
+
+    @Override
+    public void verifyIndexes() {
+        withStripes(-1L, () -> {
+            super.verifyIndexes();
+            return null;
+        });
+    }
+
+    @Override
+    Map<Integer, Integer> availableSnapshot() {
+        return withStripes(-1L, super::availableSnapshot);
+    }
+
+    @Override
+    public int freeSlotCount() {
+        synchronized (slotLock) {
+            return super.freeSlotCount();
+        }
+    }
+
+    /**
+     * Checking after every change would see other threads part way through theirs, so it is left to
+     * verifyIndexes, which waits for them.
+     */
+    @Override
+    void verifyIfChecking() {
+    }
+
+    @Override
+    int claimFreeSlot() {
+        synchronized (slotLock) {
+            return super.claimFreeSlot();
+        }
+    }
+
+    @Override
+    void claimSlot(int slot) {
+        synchronized (slotLock) {
+            super.claimSlot(slot);
+        }
+    }
+
+    @Override
+    void releaseSlot(int slot) {
+        synchronized (slotLock) {
+            super.releaseSlot(slot);
+        }
+    }
+
+    @Override
+    void markChanged(int slot) {
+        synchronized (slotLock) {
+            super.markChanged(slot);
+        }
+    }
+
+    /**
+     * Run the action holding the locks of the given stripes.
+     * The locks are always taken in stripe order, so two threads can never each wait for the other.
+     * @param stripes A bit for each stripe to lock.
+     * @param action What to do.
+     * @return The result of the action.
+     */
+    private <T> T withStripes(long stripes, Supplier<T> action) {
+        for (long left = stripes; left != 0; left &= left - 1) {
+            partLocks[Long.numberOfTrailingZeros(left)].lock();
+        }
+        try {
+            return action.get();
+        } finally {
+            for (long left = stripes; left != 0; left &= left - 1) {
+                partLocks[Long.numberOfTrailingZeros(left)].unlock();
+            }
+        }
+    }
+
+    /**
+     * Find the stripes of all the parts in the batches.
+     * @param allBatches The batches.
+     * @return A bit for each stripe.
+     */
+    private static long stripesOf(AllBatches allBatches) {
+        long stripes = 0;
+        for (Batch batch : allBatches.getBatches()) {
+            stripes |= 1L << stripeOf(batch.getPartCode());
+        }
+        return stripes;
+    }
+
+    /**
+     * Find the stripes of the part codes.
+     * @param partCodes The part codes.
+     * @return A bit for each stripe.
+     */
+    private static long stripesOf(Collection<Integer> partCodes) {
+        long stripes = 0;
+        for (int partCode : partCodes) {
+            stripes |= 1L << stripeOf(partCode);
+        }
+        return stripes;
+    }
+
+    /**
+     * Find the stripe a part code belongs to.
+     * Part codes are numbered in sequence, so neighbouring parts go to different stripes.
+     * @param partCode The part code.
+     * @return The stripe.
+     */
+    private static int stripeOf(int partCode) {
+        return Math.floorMod(partCode, STRIPES);
+    }
+}
@@ -1,17 +1,48 @@
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * Handle interactions with the database.
  * @author Nathan Thompsom - njt38
  */
-public class DatabaseHandler
+public class DatabaseHandler implements AutoCloseable
 {
     private static final int ROWS = 20, COLS = 30;
+    // The columns that writing the warehouse and setting fulfilled flags depend on, by table.
+    private static final Map<String, List<String>> REQUIRED_COLUMNS = Map.of(
+            "warehouse", List.of("location", "partCode", "quantity"),
+            "customerOrders", List.of("orderNumber", "fulfilled"),
+            "deliveries", List.of("deliveryNumber", "fulfilled"),
+            "purchaseOrders", List.of("purchaseOrderNumber", "fulfilled"));
     private final Connection connection;
+    // The table of versions kept by webview.converter.TableVersions, which counts changes to the warehouse table.
+    private static final String TABLE_VERSIONS = "tableVersions";
+    // The row of the versions table holding the epoch.
+    private static final String EPOCH = "*epoch*";
+    // The changes to the warehouse table that are counted.
+    private static final List<String> WAREHOUSE_EVENTS = List.of("INSERT", "UPDATE", "DELETE");
+    // The database file.
+    private final Path databaseFile;
+    // Whether the connections are set up with SQLiteTuning.
+    private final boolean tuned;
+    // The statements prepared on the connection, reused every time their query is run.
+    private final StatementCache statements;
     private Warehouse warehouse;
+    // The most recent write of the warehouse table.
+    private WarehouseWriteReport lastWarehouseWrite;
+    // Writes queued updates in the background, or null until the first is queued.
+    private WarehouseWriteBehind writeBehind;
+    // Whether the database is known to count the changes to the warehouse table.
+    private boolean warehouseVersionKept;
 
     /**
      * Create a database reader and read the contents of
@@ -22,14 +53,61 @@ public class DatabaseHandler
      */
     public DatabaseHandler()
             throws ClassNotFoundException, SQLException
+    {
+        this("warehousedata.sqlite", true);
+    }
+
+    /**
+     * Create a handler for the given database.
+     *
+     * @param database The name of the database file.
+     * @param tuned    true to set the database up with SQLiteTuning: a write-ahead log, a larger cache and
+     *                 indexes on the columns rows are looked up by. false leaves it as SQLite opens it.
+     * @throws ClassNotFoundException If there is no Database driver.
+     * @throws SQLException           If there is a problem reading from the database.
+     */
+    public DatabaseHandler(String database, boolean tuned)
+            throws ClassNotFoundException, SQLException
     {
         Class.forName("org.sqlite.JDBC");
-        String database = "warehousedata.sqlite";
         String url = "jdbc:sqlite:" + database;
+        databaseFile = Path.of(database);
+        this.tuned = tuned;
 
         // Set a timeout in case of connectivity issues.
         DriverManager.setLoginTimeout(1);
         connection = DriverManager.getConnection(url);
+        statements = new StatementCache(connection);
+        if (tuned) {
+            SQLiteTuning.apply(connection);
+        }
+        checkSchema();
+    }
+
+    /**
+     * Check that the database has every table and column that the warehouse and the fulfilled flags are
+     * written to, so that a mistake shows up on startup rather than part way through picking.
+     *
+     * @throws SQLException If a table or column is missing.
+     */
+    private void checkSchema() throws SQLException
+    {
+        for (Map.Entry<String, List<String>> table : REQUIRED_COLUMNS.entrySet()) {
+            List<String> columns = new ArrayList<>();
+            try (ResultSet resultSet = statements.prepare("pragma table_info(" + table.getKey() + ")").executeQuery()) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("name"));
+                }
+            }
+            if (columns.isEmpty()) {
+                throw new SQLException("The database has no " + table.getKey() + " table.");
+            }
+            for (String column : table.getValue()) {
+                if (!columns.contains(column)) {
+                    throw new SQLException("The " + table.getKey() + " table has no " + column + " column.");
+                }
+            }
+        }
     }
 
     /**
@@ -72,16 +150,13 @@ public class DatabaseHandler
             throws SQLException
     {
         Map<String, String> types = new TreeMap<>();
-        Statement statement = connection.createStatement();
-        ResultSet resultSet = statement.executeQuery("select * from partTypes");
-
-        while (resultSet.next()) {
-            String type = resultSet.getString("type").trim();
-            String description = resultSet.getString("typeDescription").trim();
-            types.put(type, description);
+        try (ResultSet resultSet = statements.prepare("select * from partTypes").executeQuery()) {
+            while (resultSet.next()) {
+                String type = resultSet.getString("type").trim();
+                String description = resultSet.getString("typeDescription").trim();
+                types.put(type, description);
+            }
         }
-        resultSet.close();
-        statement.close();
         return types;
     }
 
@@ -113,9 +188,166 @@ public class DatabaseHandler
         }
         resultSet.close();
         statement.close();
+        // The table and the warehouse now match, so only later changes need writing back.
+        warehouse.markClean();
+        return warehouse;
+    }
+
+    /**
+     * Read the warehouse from a snapshot if there is one taken from the database as it is now, which is much
+     * faster than reading the warehouse table. Otherwise read the table, and take a new snapshot of it.
+     *
+     * @param snapshotFile The snapshot file.
+     * @return The warehouse.
+     * @throws SQLException On SQL error.
+     */
+    public Warehouse readWarehouse(Path snapshotFile) throws SQLException
+    {
+        // Taken before the table is read, so a change made meanwhile by another program is not missed.
+        Long stamp = null;
+        try {
+            stamp = databaseStamp();
+            Warehouse warehouse = WarehouseSnapshot.read(snapshotFile, stamp, new ObjectGridStorage(ROWS * COLS));
+            warehouse.markClean();
+            return warehouse;
+        } catch (SQLException e) {
+            System.err.println("Not using the warehouse snapshot, as the state of the database cannot be read: "
+                    + e.getMessage());
+        } catch (NoSuchFileException e) {
+            // There is no snapshot yet.
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException means the snapshot's grid is not the size of the warehouse.
+            System.err.println("Ignoring the warehouse snapshot: " + e.getMessage());
+        }
+        Warehouse warehouse = readWarehouse();
+        // Without a stamp the snapshot could never be told apart from a stale one, so none is taken.
+        if (stamp != null) {
+            writeWarehouseSnapshot(warehouse, snapshotFile, stamp);
+        }
         return warehouse;
     }
 
+    /**
+     * Take a snapshot of the warehouse for readWarehouse to start from next time, for example on shutdown.
+     * The warehouse must match the warehouse table, so this does nothing if it has changes not yet written.
+     *
+     * @param theWarehouse The warehouse.
+     * @param snapshotFile The snapshot file.
+     * @return true if the snapshot was taken.
+     */
+    public boolean writeWarehouseSnapshot(Warehouse theWarehouse, Path snapshotFile)
+    {
+        if (!theWarehouse.isTrackingChanges() || !theWarehouse.getChangedLocations().isEmpty()) {
+            System.err.println("Not taking a warehouse snapshot, as the warehouse table is out of date.");
+            return false;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("Not taking a warehouse snapshot, as queued updates were not written: " + e);
+            return false;
+        }
+        try {
+            return writeWarehouseSnapshot(theWarehouse, snapshotFile, databaseStamp());
+        } catch (SQLException e) {
+            System.err.println("Not taking a warehouse snapshot, as the state of the database cannot be read: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Take a snapshot of the warehouse, which matches the database in the state given by the stamp.
+     *
+     * @param theWarehouse The warehouse.
+     * @param snapshotFile The snapshot file.
+     * @param stamp Identifies the state of the database.
+     * @return true if the snapshot was taken.
+     */
+    private boolean writeWarehouseSnapshot(Warehouse theWarehouse, Path snapshotFile, long stamp)
+    {
+        try {
+            WarehouseSnapshot.write(theWarehouse, snapshotFile, stamp);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write the warehouse snapshot: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Identify the state of the warehouse table by the epoch and version the database keeps for it,
+     * so that a snapshot taken before any later change to the table is not used.
+     *
+     * @return The stamp.
+     * @throws SQLException If the version cannot be read, or cannot be kept.
+     */
+    private long databaseStamp() throws SQLException
+    {
+        keepWarehouseVersion();
+        Long epoch = null, version = null;
+        try (ResultSet resultSet = statements.prepare("select tableName, version from " + TABLE_VERSIONS
+                + " where tableName in ('" + EPOCH + "', 'warehouse')").executeQuery()) {
+            while (resultSet.next()) {
+                if (resultSet.getString("tableName").equals(EPOCH)) {
+                    epoch = resultSet.getLong("version");
+                } else {
+                    version = resultSet.getLong("version");
+                }
+            }
+        }
+        if (epoch == null || version == null) {
+            throw new SQLException("The " + TABLE_VERSIONS + " table has no version for the warehouse table.");
+        }
+        return epoch * 31 + version;
+    }
+
+    /**
+     * Make sure the database counts the changes to the warehouse table, in the tableVersions table that
+     * webview.converter.TableVersions keeps for the web pages, adding the table, its row and the triggers if any
+     * are missing. The count goes up in the same transaction as any change to the table, whichever program makes
+     * it. Only called where warehouse snapshots are used, so a database that never has one is left as it is.
+     *
+     * @throws SQLException If they are missing and cannot be added, for example because the database is read-only.
+     */
+    private void keepWarehouseVersion() throws SQLException
+    {
+        if (warehouseVersionKept) {
+            return;
+        }
+        try (ResultSet resultSet = statements.prepare("select "
+                + "(select count(*) from sqlite_master where type = 'table' and name = '" + TABLE_VERSIONS + "'), "
+                + "(select count(*) from sqlite_master where type = 'trigger' and name in "
+                + "('warehouse_version_insert', 'warehouse_version_update', 'warehouse_version_delete'))").executeQuery()) {
+            if (resultSet.next() && resultSet.getInt(1) == 1 && resultSet.getInt(2) == WAREHOUSE_EVENTS.size()) {
+                warehouseVersionKept = true;
+                return;
+            }
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE_VERSIONS
+                    + " (tableName TEXT PRIMARY KEY, version INTEGER NOT NULL)");
+            // Changes may have been missed while the triggers were missing, so start a new epoch.
+            statement.executeUpdate(String.format("INSERT OR REPLACE INTO %s VALUES ('%s', %d)",
+                    TABLE_VERSIONS, EPOCH, new Random().nextLong()));
+            statement.executeUpdate(String.format("INSERT OR IGNORE INTO %s VALUES ('warehouse', 0)", TABLE_VERSIONS));
+            for (String event : WAREHOUSE_EVENTS) {
+                statement.executeUpdate(String.format(
+                        "CREATE TRIGGER IF NOT EXISTS warehouse_version_%s AFTER %s ON warehouse BEGIN "
+                        + "UPDATE %s SET version = version + 1 WHERE tableName = 'warehouse'; END",
+                        event.toLowerCase(), event, TABLE_VERSIONS));
+            }
+            connection.commit();
+            warehouseVersionKept = true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
     /**
      * Read the customer information; name, address etc and adds it to the customer object.
      *
@@ -260,6 +492,103 @@ public class DatabaseHandler
         return allOrderItems;
     }
 
+    /**
+     * Read the customer orders together with their items, using one query ordered by order number.
+     *
+     * @param unfulfilledOnly Only read the orders that have not been fulfilled.
+     * @return The customer orders, each with all of its batches.
+     * @throws SQLException on SQL error.
+     */
+    public AllCustomerOrders loadCustomerOrders(boolean unfulfilledOnly) throws SQLException
+    {
+        AllCustomerOrders allCustomerOrders = new AllCustomerOrders();
+        loadOrders("""
+                select o.orderNumber, o.customerCode, o.dateOrdered, o.fulfilled, i.partCode, i.quantity
+                from customerOrders o left join customerOrderItems i on i.orderNumber = o.orderNumber
+                """ + (unfulfilledOnly ? "where o.fulfilled = 'N' " : "") + "order by o.orderNumber",
+                resultSet -> new CustomerOrder(resultSet.getInt("orderNumber"), resultSet.getInt("customerCode"),
+                        new Date(resultSet.getString("dateOrdered")), resultSet.getString("fulfilled").equals("Y")),
+                allCustomerOrders::addOrder);
+        return allCustomerOrders;
+    }
+
+    /**
+     * Read the purchase orders together with their items, using one query ordered by purchase order number.
+     *
+     * @param unfulfilledOnly Only read the purchase orders that have not been fulfilled.
+     * @return The purchase orders, each with all of its batches.
+     * @throws SQLException on SQL error.
+     */
+    public AllPurchaseOrders loadPurchaseOrders(boolean unfulfilledOnly) throws SQLException
+    {
+        AllPurchaseOrders allPurchaseOrders = new AllPurchaseOrders();
+        loadOrders("""
+                select o.purchaseOrderNumber, o.dateOrdered, o.fulfilled, i.partCode, i.quantity
+                from purchaseOrders o left join purchaseOrderItems i on i.purchaseOrderNumber = o.purchaseOrderNumber
+                """ + (unfulfilledOnly ? "where o.fulfilled = 'N' " : "") + "order by o.purchaseOrderNumber",
+                resultSet -> new PurchaseOrder(resultSet.getInt("purchaseOrderNumber"),
+                        new Date(resultSet.getString("dateOrdered")), resultSet.getString("fulfilled").equals("Y")),
+                allPurchaseOrders::addOrder);
+        return allPurchaseOrders;
+    }
+
+    /**
+     * Read the deliveries together with their items, using one query ordered by delivery number.
+     *
+     * @param unfulfilledOnly Only read the deliveries that have not been put into the warehouse.
+     * @return The deliveries, each with all of its batches.
+     * @throws SQLException on SQL error.
+     */
+    public AllDeliveries loadDeliveries(boolean unfulfilledOnly) throws SQLException
+    {
+        AllDeliveries allDeliveries = new AllDeliveries();
+        loadOrders("""
+                select o.deliveryNumber, o.dateDelivered, o.fulfilled, i.partCode, i.quantity
+                from deliveries o left join deliveryItems i on i.deliveryNumber = o.deliveryNumber
+                """ + (unfulfilledOnly ? "where o.fulfilled = 'N' " : "") + "order by o.deliveryNumber",
+                resultSet -> new Delivery(resultSet.getInt("deliveryNumber"),
+                        new Date(resultSet.getString("dateDelivered")), resultSet.getString("fulfilled").equals("Y")),
+                allDeliveries::addDelivery);
+        return allDeliveries;
+    }
+
+    /**
+     * Creates an order from the order columns of the current row of a result set.
+     */
+    private interface OrderReader<T extends Order>
+    {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Stream the rows of an order table joined with its items into orders.
+     * The first column must be the order number and the rows must be ordered by it.
+     * Orders without any items have a null partCode.
+     *
+     * @param sql         The query.
+     * @param orderReader Creates an order from the first row for each order number.
+     * @param collection  Receives each order as it is created.
+     * @throws SQLException on SQL error.
+     */
+    private <T extends Order> void loadOrders(String sql, OrderReader<T> orderReader, Consumer<T> collection)
+            throws SQLException
+    {
+        try (ResultSet resultSet = statements.prepare(sql).executeQuery()) {
+            T order = null;
+            while (resultSet.next()) {
+                int orderNumber = resultSet.getInt(1);
+                if (order == null || order.getOrderNumber() != orderNumber) {
+                    order = orderReader.read(resultSet);
+                    collection.accept(order);
+                }
+                int partCode = resultSet.getInt("partCode");
+                if (!resultSet.wasNull()) {
+                    order.addBatch(new Batch(partCode, resultSet.getInt("quantity")));
+                }
+            }
+        }
+    }
+
     /**
      * Set the fulfilled flag n the orders table to 'Y'.
      *
@@ -283,14 +612,14 @@ public class DatabaseHandler
     }
 
     /**
-     * Set the fulfilled flag in the purchases table to 'Y'.
+     * Set the fulfilled flag in the purchaseOrders table to 'Y'.
      *
      * @param purchaseOrderNumber the purchase order number.
      * @throws SQLException
      */
     public void setPurchaseOrderFulfilled(int purchaseOrderNumber) throws SQLException
     {
-        setFulfilled("purchases", "purchaseOrderNumber", purchaseOrderNumber);
+        setFulfilled("purchaseOrders", "purchaseOrderNumber", purchaseOrderNumber);
     }
 
     /**
@@ -323,31 +652,214 @@ public class DatabaseHandler
         }
     }
 
+    /**
+     * Queue the warehouse and customerOrders tables to be updated as a result of a customer order, and return
+     * without waiting for the database. Call flush when the update must have been written.
+     * @param theWarehouse The warehouse
+     * @param orderNumber The customer order number.
+     * @throws SQLException If the connection for writing in the background cannot be opened.
+     */
+    public void queueWarehouseFromCustomerOrder(Warehouse theWarehouse, int orderNumber) throws SQLException {
+        getWriteBehind().queue(theWarehouse, Fulfilment.customerOrder(orderNumber));
+    }
+
+    /**
+     * Queue the warehouse and deliveries tables to be updated as a result of a delivery, and return
+     * without waiting for the database. Call flush when the update must have been written.
+     * @param theWarehouse The warehouse
+     * @param deliveryNumber The delivery number
+     * @throws SQLException If the connection for writing in the background cannot be opened.
+     */
+    public void queueWarehouseFromDelivery(Warehouse theWarehouse, int deliveryNumber) throws SQLException {
+        getWriteBehind().queue(theWarehouse, Fulfilment.delivery(deliveryNumber));
+    }
+
+    /**
+     * Wait until every queued update has been written to the database.
+     * @throws SQLException If the queued updates could not be written.
+     */
+    public void flush() throws SQLException {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /**
+     * Write any queued updates, and close the connections to the database.
+     * @throws SQLException If the queued updates could not be written.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+        } finally {
+            try {
+                statements.close();
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Get the queue of updates written in the background, starting it on its own connection if need be.
+     * @return The queue.
+     * @throws SQLException If the connection cannot be opened.
+     */
+    private WarehouseWriteBehind getWriteBehind() throws SQLException {
+        if (writeBehind == null) {
+            Connection writerConnection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+            if (tuned) {
+                SQLiteTuning.configure(writerConnection);
+            }
+            writeBehind = new WarehouseWriteBehind(writerConnection);
+        }
+        return writeBehind;
+    }
+
+    /**
+     * Start a unit of work that writes the changes to the warehouse together with the orders, deliveries and
+     * purchase orders they fulfil, in one transaction.
+     *
+     * @param theWarehouse The warehouse.
+     * @return The unit of work.
+     */
+    public UnitOfWork beginUnitOfWork(Warehouse theWarehouse)
+    {
+        return new UnitOfWork(this, theWarehouse);
+    }
+
     /**
      * Update the warehouse table from the current state.
      *
      * @param theWarehouse The warehouse.
+     * @return The number of rows written and deleted and how long it took.
+     */
+    private WarehouseWriteReport updateWarehouse(Warehouse theWarehouse)
+            throws SQLException
+    {
+        return writeTransaction(theWarehouse, List.of());
+    }
+
+    /**
+     * Update the warehouse table from the current state and set the fulfilled flags, in a single transaction
+     * which is rolled back if any of it fails, including a fulfilment that matches no row.
+     * If the warehouse has been tracking its changes since it last matched the table, only the changed
+     * locations are deleted and reinserted; otherwise the whole table is replaced.
+     * The rows are written as JDBC batches, and the report counts the deleted rows apart from the written ones.
+     *
+     * @param theWarehouse The warehouse.
+     * @param fulfilments The orders, deliveries and purchase orders to mark as fulfilled.
+     * @return The number of rows written and deleted and how long it took.
+     */
+    WarehouseWriteReport writeTransaction(Warehouse theWarehouse, Collection<Fulfilment> fulfilments)
+            throws SQLException
+    {
+        // Queued updates are older than this one, so they must be written first.
+        flush();
+        long start = System.nanoTime();
+        int rowsDeleted;
+        int rowsWritten;
+        // Taken in the same step as the warehouse is marked clean, so a change made meanwhile is not lost.
+        WarehouseChanges changes = theWarehouse.drainChanges();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            rowsDeleted = deleteWarehouseRows(changes);
+            rowsWritten = insertWarehouseRows(changes);
+            List<Fulfilment> missing = Fulfilment.markAll(statements, fulfilments);
+            if (!missing.isEmpty()) {
+                throw new SQLException("Failed to update the fulfilled column of " + missing);
+            }
+            rowsWritten += fulfilments.size();
+            connection.commit();
+        } catch (Throwable e) {
+            // Any failure must be rolled back here, as restoring auto-commit below would commit the transaction.
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            theWarehouse.restoreChanges(changes);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        lastWarehouseWrite = new WarehouseWriteReport(rowsWritten, rowsDeleted, System.nanoTime() - start);
+        return lastWarehouseWrite;
+    }
+
+    /**
+     * Delete the changed rows of the warehouse table, without committing them.
+     *
+     * @param changes The changes taken from the warehouse.
+     * @return The number of rows deleted.
      */
-    private void updateWarehouse(Warehouse theWarehouse)
+    private int deleteWarehouseRows(WarehouseChanges changes)
             throws SQLException
     {
-        try(Statement statement = connection.createStatement()) {
+        int rowsDeleted = 0;
+        if (changes.all()) {
             // Clear the existing contents of the warehouse table.
-            statement.executeUpdate("delete from warehouse");
-            // UNCOMMENT FROM HERE
-            // Insert each batch into the warehouse at its location.
-            List<Location> partLocations = theWarehouse.getPartLocations();
-            for (Location theLocation : partLocations) {
-                Batch aBatch = theWarehouse.getBatchAt(theLocation);
-                if (statement.executeUpdate(
-                        String.format("insert into warehouse values ('%d,%d', %d, %d)",
-                                theLocation.row(), theLocation.col(),
-                                aBatch.getPartCode(), aBatch.getQuantity())) != 1) {
-                    System.err.println("Failed to insert " + aBatch + " into the warehouse.");
-                }
+            rowsDeleted += statements.prepare("delete from warehouse").executeUpdate();
+        } else {
+            // Clear just the changed locations.
+            PreparedStatement deleteFromWarehouse = statements.prepare("delete from warehouse where location = ?");
+            for (Location theLocation : changes.contents().keySet()) {
+                deleteFromWarehouse.setString(1, theLocation.row() + "," + theLocation.col());
+                deleteFromWarehouse.addBatch();
+            }
+            for (int deleted : deleteFromWarehouse.executeBatch()) {
+                rowsDeleted += Math.max(deleted, 0);
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Insert the changed rows of the warehouse table, without committing them.
+     *
+     * @param changes The changes taken from the warehouse.
+     * @return The number of rows inserted.
+     */
+    private int insertWarehouseRows(WarehouseChanges changes)
+            throws SQLException
+    {
+        int rowsWritten = 0;
+        // Insert each batch into the warehouse at its location.
+        PreparedStatement insertIntoWarehouse = statements.prepare("insert into warehouse values (?, ?, ?)");
+        List<Batch> inserted = new ArrayList<>();
+        for (Map.Entry<Location, Batch> change : changes.contents().entrySet()) {
+            Batch aBatch = change.getValue();
+            if (aBatch != null) {
+                insertIntoWarehouse.setString(1, change.getKey().row() + "," + change.getKey().col());
+                insertIntoWarehouse.setInt(2, aBatch.getPartCode());
+                insertIntoWarehouse.setInt(3, aBatch.getQuantity());
+                insertIntoWarehouse.addBatch();
+                inserted.add(aBatch);
             }
-            // END OF CODE TO BE UNCOMMENTED
         }
+        int[] results = insertIntoWarehouse.executeBatch();
+        for (int index = 0; index < results.length; index++) {
+            if (results[index] == 1 || results[index] == Statement.SUCCESS_NO_INFO) {
+                rowsWritten++;
+            } else {
+                System.err.println("Failed to insert " + inserted.get(index) + " into the warehouse.");
+            }
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Get the number of rows written and deleted and the time taken by the most recent write of the warehouse table.
+     *
+     * @return the most recent write, or null if the table has not been written.
+     */
+    public WarehouseWriteReport getLastWarehouseWrite()
+    {
+        return lastWarehouseWrite;
     }
 
 
@@ -362,11 +874,10 @@ public class DatabaseHandler
     private void setFulfilled(String table, String columnName, int number)
             throws SQLException
     {
-        Statement statement = connection.createStatement();
-        String sql = String.format("update %s set fulfilled = 'Y' where %s = %d",
-                table, columnName, number);
-        int response = statement.executeUpdate(sql);
-        statement.close();
+        PreparedStatement statement = statements.prepare(String.format("update %s set fulfilled = 'Y' where %s = ?",
+                table, columnName));
+        statement.setInt(1, number);
+        int response = statement.executeUpdate();
         if(response != 1) {
             throw new SQLException(
                     String.format("Failed to update the fulfilled column of table %s where %s = %d.",
@@ -1,16 +1,19 @@
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
  * Model a date in the format stored in the database.
+ * The date is held as the number of seconds from 1970-01-01 00:00:00 to the given
+ * day and time, ignoring time zones, so dates are compared to the nearest second.
  */
 public class Date
 {
-    // Used to format Calendar objects.
-    private static final SimpleDateFormat formatter =
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // The length of a date in the form yyyy-mm-dd hh:mm:ss.
+    private static final int LENGTH = 19;
+    // The number of seconds in a day.
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
 
-    private final Calendar date;
+    // Seconds since 1970-01-01 00:00:00.
+    private final long seconds;
 
     /**
      * Create a Date.
@@ -18,7 +21,7 @@ public class Date
      */
     public Date(String dayAndTime)
     {
-        this.date = decodeDate(dayAndTime);
+        this.seconds = decodeDate(dayAndTime);
     }
 
     /**
@@ -27,16 +30,18 @@ public class Date
      */
     public Date(Date other)
     {
-        this.date = (Calendar) other.date.clone();
+        this.seconds = other.seconds;
     }
 
     /**
-     * Create a date from the given calendar.
+     * Create a date from the given calendar, at the time the local clock shows for it, whatever the
+     * calendar's time zone, as the dates in the database are local times.
      * @param calendar The date.
      */
     public Date(Calendar calendar)
     {
-        this.date = calendar;
+        long millis = calendar.getTimeInMillis();
+        this.seconds = Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), 1000);
     }
 
     /**
@@ -46,7 +51,7 @@ public class Date
      */
     public boolean before(Date other)
     {
-        return date.before(other.date);
+        return seconds < other.seconds;
     }
 
     /**
@@ -56,7 +61,7 @@ public class Date
      */
     public boolean after(Date other)
     {
-        return date.after(other.date);
+        return seconds > other.seconds;
     }
 
     /**
@@ -74,36 +79,121 @@ public class Date
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Date date1 = (Date) o;
-        return Objects.equals(date, date1.date);
+        return seconds == date1.seconds;
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hash(date);
+        return Long.hashCode(seconds);
     }
 
     /**
-     * Format a date in Calendar form.
-     * @return The formatted date in dd-mm-yyyy format.
+     * Format a date in the database form.
+     * Builds the characters directly, so it is safe to call from any thread.
+     * @return The formatted date in yyyy-mm-dd hh:mm:ss format.
      */
     @Override
     public String toString()
     {
-        return formatter.format(date.getTime());
+        long days = Math.floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+
+        // Convert the days into a year, month and day, using years starting in March.
+        long shiftedDays = days + 719468;
+        long era = Math.floorDiv(shiftedDays, 146097);
+        int dayOfEra = (int) (shiftedDays - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[LENGTH];
+        putDigits(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        putDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        putDigits(chars, 8, day, 2);
+        chars[10] = ' ';
+        putDigits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        putDigits(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        putDigits(chars, 17, secondOfDay % 60, 2);
+        return new String(chars);
     }
 
     /**
      * Decode a date/time string in the form yyyy-mm-dd hh:mm:ss.
+     * Dates in exactly that form are read in place; others, such as ones without leading zeros, are split into fields.
      * @param dateAndTime The date and time.
-     * @return a calendar based on the date.
+     * @return the seconds since 1970-01-01 00:00:00.
      */
-    private Calendar decodeDate(String dateAndTime) {
-        String[] parts = dateAndTime.split(" ");
+    private static long decodeDate(String dateAndTime) {
+        if (dateAndTime.length() == LENGTH
+                && dateAndTime.charAt(4) == '-' && dateAndTime.charAt(7) == '-' && dateAndTime.charAt(10) == ' '
+                && dateAndTime.charAt(13) == ':' && dateAndTime.charAt(16) == ':') {
+            return toSeconds(digits(dateAndTime, 0, 4), digits(dateAndTime, 5, 2), digits(dateAndTime, 8, 2),
+                    digits(dateAndTime, 11, 2), digits(dateAndTime, 14, 2), digits(dateAndTime, 17, 2));
+        }
+        String[] parts = dateAndTime.trim().split(" ");
         String[] date = parts[0].split("-");
         String[] time = parts[1].split(":");
-        return new GregorianCalendar(Integer.parseInt(date[0]),
-                Integer.parseInt(date[1]) - 1, Integer.parseInt(date[2]),
+        return toSeconds(Integer.parseInt(date[0]), Integer.parseInt(date[1]), Integer.parseInt(date[2]),
                 Integer.parseInt(time[0]), Integer.parseInt(time[1]), Integer.parseInt(time[2]));
     }
+
+    /**
+     * Read a fixed number of decimal digits.
+     * @param text The text.
+     * @param start The index of the first digit.
+     * @param count The number of digits.
+     * @return The number.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int index = start; index < start + count; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Not a date in the form yyyy-mm-dd hh:mm:ss: " + text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Write a number as a fixed number of decimal digits, with leading zeros.
+     * @param chars Where to write the digits.
+     * @param start The index of the first digit.
+     * @param value The number.
+     * @param count The number of digits.
+     */
+    private static void putDigits(char[] chars, int start, int value, int count) {
+        for (int index = start + count - 1; index >= start; index--) {
+            chars[index] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Convert a day and time into seconds since 1970-01-01 00:00:00.
+     * Out of range months, days and times carry over, as they do for a lenient calendar.
+     * @return the seconds since 1970-01-01 00:00:00.
+     */
+    private static long toSeconds(int year, int month, int day, int hour, int minute, int second) {
+        // Carry whole years out of the month.
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        // Count the days using years starting in March, so the leap day comes last.
+        int shiftedYear = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(shiftedYear, 400);
+        int yearOfEra = (int) (shiftedYear - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097 + dayOfEra - 719468;
+        return days * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+    }
 }
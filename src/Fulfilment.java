@@ -0,0 +1,82 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * A customer order, delivery or purchase order to be marked as fulfilled in the database.
+ * @author Nathan Thompson - njt38
+ * @param table The table holding it.
+ * @param columnName The column holding its number.
+ * @param number Its number.
+ */
+public record Fulfilment(String table, String columnName, int number) {
+
+    /**
+     * The customer order with the given number.
+     * @param orderNumber The customer order number.
+     * @return The fulfilment.
+     */
+    public static Fulfilment customerOrder(int orderNumber) {
+        return new Fulfilment("customerOrders", "orderNumber", orderNumber);
+    }
+
+    /**
+     * The delivery with the given number.
+     * @param deliveryNumber The delivery number.
+     * @return The fulfilment.
+     */
+    public static Fulfilment delivery(int deliveryNumber) {
+        return new Fulfilment("deliveries", "deliveryNumber", deliveryNumber);
+    }
+
+    /**
+     * The purchase order with the given number.
+     * @param purchaseOrderNumber The purchase order number.
+     * @return The fulfilment.
+     */
+    public static Fulfilment purchaseOrder(int purchaseOrderNumber) {
+        return new Fulfilment("purchaseOrders", "purchaseOrderNumber", purchaseOrderNumber);
+    }
+
+    /**
+     * Set the fulfilled flag to Y for each of the fulfilments, as one batch for each table.
+     * This does not commit, so it can be part of a larger transaction.
+     * @param statements The prepared statements of the connection to the database.
+     * @param fulfilments The fulfilments.
+     * @return The fulfilments that matched no row.
+     * @throws SQLException If the flags cannot be set.
+     */
+    public static List<Fulfilment> markAll(StatementCache statements, Collection<Fulfilment> fulfilments)
+            throws SQLException {
+        Map<String, List<Fulfilment>> byStatement = new LinkedHashMap<>();
+        for (Fulfilment fulfilment : fulfilments) {
+            byStatement.computeIfAbsent(String.format("update %s set fulfilled = 'Y' where %s = ?",
+                    fulfilment.table(), fulfilment.columnName()), k -> new ArrayList<>()).add(fulfilment);
+        }
+        List<Fulfilment> missing = new ArrayList<>();
+        for (Map.Entry<String, List<Fulfilment>> statement : byStatement.entrySet()) {
+            PreparedStatement update = statements.prepare(statement.getKey());
+            for (Fulfilment fulfilment : statement.getValue()) {
+                update.setInt(1, fulfilment.number());
+                update.addBatch();
+            }
+            int[] results = update.executeBatch();
+            for (int index = 0; index < results.length; index++) {
+                if (results[index] != 1 && results[index] != Statement.SUCCESS_NO_INFO) {
+                    missing.add(statement.getValue().get(index));
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Returns a description of the fulfilment.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("%s where %s = %d", table, columnName, number);
+    }
+}
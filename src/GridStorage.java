@@ -0,0 +1,68 @@
+/**
+ * Storage for the batches held in the grid of a warehouse.
+ * Each location is stored in a slot numbered row * numCols + col.
+ * @author Nathan Thompson - njt38
+ */
+public interface GridStorage {
+    /**
+     * Returns the number of slots.
+     * @return
+     */
+    int size();
+
+    /**
+     * Checks if the slot holds no batch.
+     * @param slot
+     * @return
+     */
+    boolean isEmpty(int slot);
+
+    /**
+     * Returns the part code in the slot. Only valid if the slot is not empty.
+     * @param slot
+     * @return
+     */
+    int getPartCode(int slot);
+
+    /**
+     * Returns the quantity in the slot, or 0 if it is empty.
+     * @param slot
+     * @return
+     */
+    int getQuantity(int slot);
+
+    /**
+     * Returns the batch in the slot, or null if it is empty.
+     * @param slot
+     * @return
+     */
+    Batch getBatch(int slot);
+
+    /**
+     * Puts a batch into the slot, replacing whatever was there.
+     * @param slot
+     * @param batch
+     */
+    void put(int slot, Batch batch);
+
+    /**
+     * Puts a new batch of the part code into the slot, replacing whatever was there.
+     * @param slot
+     * @param partCode
+     * @param quantity
+     */
+    void put(int slot, int partCode, int quantity);
+
+    /**
+     * Changes the quantity in an occupied slot by the given amount, which may be negative.
+     * @param slot
+     * @param amount
+     */
+    void changeQuantity(int slot, int amount);
+
+    /**
+     * Empties the slot.
+     * @param slot
+     */
+    void clear(int slot);
+}
@@ -1,3 +1,4 @@
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
 import java.util.*;
@@ -11,6 +12,8 @@ public class Main {
     private final static Random rand = new Random();
     // Access to the database.
     private static DatabaseHandler databaseHandler = null;
+    // Where a copy of the warehouse is kept so that it loads quickly next time.
+    private static final Path WAREHOUSE_SNAPSHOT = Path.of("warehouse.snapshot");
 
     /**
      * Read tables from the database and support some operations on the data.
@@ -22,7 +25,7 @@ public class Main {
         setup();
 
         AllParts allParts = databaseHandler.readParts();
-        Warehouse theWarehouse = databaseHandler.readWarehouse();
+        Warehouse theWarehouse = databaseHandler.readWarehouse(WAREHOUSE_SNAPSHOT);
 //        allParts.printParts();
 //        theWarehouse.printOccupiedLocations();
 
@@ -30,21 +33,24 @@ public class Main {
         System.out.println(" ===== All Customers");
 //        allCustomers.printCustomers();
 
-        AllCustomerOrders allCustomerOrders = databaseHandler.readCustomerOrders();
+        AllCustomerOrders allCustomerOrders = databaseHandler.loadCustomerOrders(false);
 //        allCustomerOrders.printOrders();
 
-        AllPurchaseOrders allPurchaseOrders = databaseHandler.readPurchaseOrders();
+        AllPurchaseOrders allPurchaseOrders = databaseHandler.loadPurchaseOrders(false);
 //        allPurchaseOrders.printOrders();
 
+        // Only the deliveries still to be unloaded are needed.
+        AllDeliveries allDeliveries = databaseHandler.loadDeliveries(true);
+
         part1(theWarehouse);
         part2(databaseHandler);
-        part3(databaseHandler, allParts, allCustomerOrders);
-        part4(theWarehouse, allCustomerOrders);
-        part5(databaseHandler, theWarehouse, allParts, allPurchaseOrders);
-        part6(theWarehouse, allCustomerOrders, allPurchaseOrders);
-        part7(theWarehouse, allCustomerOrders);
-
-        AllDeliveries allDeliveries = databaseHandler.readDeliveries();
+        part3(allParts, allCustomerOrders);
+        // Parts 4 to 7 all need to know which orders can be filled, and nothing is picked until part 7.
+        List<OrderShortfall> shortfalls = theWarehouse.findShortfalls(allCustomerOrders.getOrders());
+        part4(shortfalls);
+        part5(theWarehouse, allParts, allCustomerOrders, allPurchaseOrders, allDeliveries);
+        part6(theWarehouse, shortfalls, allPurchaseOrders);
+        part7(theWarehouse, shortfalls);
         part8(theWarehouse, allDeliveries);
     }
 
@@ -109,17 +115,11 @@ public class Main {
 
     /**
      * Calculate the cost of each customer order.
+     * The orders must already have been loaded with their items.
      */
-    private static void part3(DatabaseHandler databaseHandler, AllParts allParts, AllCustomerOrders allCustomerOrders) throws SQLException  {
+    private static void part3(AllParts allParts, AllCustomerOrders allCustomerOrders) {
         System.out.println("Part 3 tests");
         // TODO: Complete this part.
-        AllOrderItems allOrderItems = databaseHandler.readOrderItems("customerOrderItems");
-
-        for (OrderItem order : allOrderItems.getOrderItems()) { // problem
-            Batch aBatch = new Batch(order.partCode(), order.quantity());
-            CustomerOrder customerOrder = allCustomerOrders.getOrder(order.orderNumber());
-            customerOrder.addBatch(aBatch);
-        }
 
         //allCustomerOrders.printOrders();
         for (CustomerOrder customerOrder : allCustomerOrders.getOrders()) {
@@ -133,16 +133,18 @@ public class Main {
 
     /**
      * Check which unfilled orders can be filled.
+     *
+     * @param shortfalls What each customer order is short of.
      */
-    public static void part4(Warehouse theWarehouse, AllCustomerOrders allCustomerOrders) {
+    public static void part4(List<OrderShortfall> shortfalls) {
         System.out.println("Part 4 tests");
         // TODO: Complete this part.
 
-        for (CustomerOrder customerOrder : allCustomerOrders.getOrders()) {
-            if (theWarehouse.canBeFilled(customerOrder)) {
-                System.out.printf("Customer order %d: is in stock.%n", customerOrder.getOrderNumber());
+        for (OrderShortfall shortfall : shortfalls) {
+            if (shortfall.canBeFilled()) {
+                System.out.printf("Customer order %d: is in stock.%n", shortfall.order().getOrderNumber());
             } else {
-                System.out.printf("Customer order %d: needs a purchase order.%n", customerOrder.getOrderNumber());
+                System.out.printf("Customer order %d: needs a purchase order.%n", shortfall.order().getOrderNumber());
             }
         }
 
@@ -153,22 +155,16 @@ public class Main {
     /**
      * Create a purchase order for any parts not currently in stock.
      *
-     * @param databaseHandler   The database handler.
      * @param theWarehouse
      * @param allParts
-     * @param allPurchaseOrders
+     * @param allCustomerOrders The customer orders, already loaded with their items.
+     * @param allPurchaseOrders The purchase orders, already loaded with their items.
+     * @param allDeliveries The deliveries still to be unloaded, already loaded with their items.
      */
-    private static void part5(DatabaseHandler databaseHandler, Warehouse theWarehouse, AllParts allParts, AllPurchaseOrders allPurchaseOrders)
-            throws SQLException {
+    private static void part5(Warehouse theWarehouse, AllParts allParts, AllCustomerOrders allCustomerOrders,
+                              AllPurchaseOrders allPurchaseOrders, AllDeliveries allDeliveries) {
         System.out.println("Part 5 tests");
         // TODO: Complete this part.
-        AllOrderItems allOrderItems = databaseHandler.readOrderItems("purchaseOrderItems");
-
-        for (OrderItem order : allOrderItems.getOrderItems()) {
-            Batch aBatch = new Batch(order.partCode(), order.quantity());
-            PurchaseOrder purchaseOrder = allPurchaseOrders.getOrder(order.orderNumber());
-            purchaseOrder.addBatch(aBatch);
-        }
 //        allPurchaseOrders.printOrders();
 
         PurchaseOrder restockOrder = theWarehouse.createRestockOrder(allParts);
@@ -176,6 +172,15 @@ public class Main {
             System.out.println(restockOrder);
         }
 
+        // One order covering every open customer order, after what is in stock and on its way.
+        PurchaseOrder consolidatedOrder = theWarehouse.createConsolidatedPurchaseOrder(allCustomerOrders.getOrders(),
+                allPurchaseOrders.getOrders(), allDeliveries.getDeliveries());
+        if (consolidatedOrder != null) {
+            System.out.println("Consolidated purchase order: " + consolidatedOrder);
+        } else {
+            System.out.println("Nothing needs ordering for the open customer orders.");
+        }
+
         System.out.println("=== End of part 5");
         System.out.println();
     }
@@ -184,15 +189,17 @@ public class Main {
      * Generate a purchase order for an unfilled order that cannot be filled.
      * Only order parts from the customer order for which there are not
      * enough in the warehouse.
+     *
+     * @param shortfalls What each customer order is short of.
      */
-    public static void part6(Warehouse theWarehouse, AllCustomerOrders allCustomerOrders, AllPurchaseOrders allPurchaseOrders) {
+    public static void part6(Warehouse theWarehouse, List<OrderShortfall> shortfalls, AllPurchaseOrders allPurchaseOrders) {
         System.out.println("Part 6 tests");
         // TODO: Complete this part.
 
         List<CustomerOrder> unfulfilledOrders = new ArrayList<>();
-        for (CustomerOrder customerOrder : allCustomerOrders.getOrders()) {
-            if (!theWarehouse.canBeFilled(customerOrder)) {
-                unfulfilledOrders.add(customerOrder);
+        for (OrderShortfall shortfall : shortfalls) {
+            if (!shortfall.canBeFilled()) {
+                unfulfilledOrders.add(shortfall.order());
             }
         }
 
@@ -213,29 +220,37 @@ public class Main {
     /**
      * Generate a pick list for at least one customer order that
      * can be fulfilled.
+     *
+     * @param shortfalls What each customer order is short of.
      */
-    public static void part7(Warehouse theWarehouse, AllCustomerOrders allCustomerOrders) {
+    public static void part7(Warehouse theWarehouse, List<OrderShortfall> shortfalls) {
         System.out.println("Part 7 tests");
         // TODO: Complete this part.
 
-        List<CustomerOrder> unfulfilledOrders = new ArrayList<>();
-        for (CustomerOrder customerOrder : allCustomerOrders.getOrders()) {
-            if (!theWarehouse.canBeFilled(customerOrder)) {
-                unfulfilledOrders.add(customerOrder);
+        List<CustomerOrder> fillableOrders = new ArrayList<>();
+        for (OrderShortfall shortfall : shortfalls) {
+            if (shortfall.canBeFilled() && !shortfall.order().isFulfilled()) {
+                fillableOrders.add(shortfall.order());
             }
         }
 
-        if (!unfulfilledOrders.isEmpty()) {
-            CustomerOrder randomUnfulfilledOrder = unfulfilledOrders.get(rand.nextInt(unfulfilledOrders.size()));
+        // Hold the stock first, so the pick list is never partial.
+        Reservation reservation = null;
+        while (reservation == null && !fillableOrders.isEmpty()) {
+            reservation = theWarehouse.reserve(fillableOrders.remove(rand.nextInt(fillableOrders.size())));
+        }
+
+        if (reservation != null) {
+            CustomerOrder randomFillableOrder = reservation.getOrder();
 
-            List<PickListItem> pickList = theWarehouse.createAPickList(randomUnfulfilledOrder);
-            randomUnfulfilledOrder.setFulfilled();
+            List<PickListItem> pickList = reservation.commit();
+            randomFillableOrder.setFulfilled();
 
-            System.out.println("Results of running createAPickList:");
-            System.out.printf("Customer order %d fulfilled for customer %d%nPick list is %s%n", randomUnfulfilledOrder.getOrderNumber(), randomUnfulfilledOrder.getCustomerCode(), pickList);
+            System.out.println("Results of reserving and picking the order:");
+            System.out.printf("Customer order %d fulfilled for customer %d%nPick list is %s%n", randomFillableOrder.getOrderNumber(), randomFillableOrder.getCustomerCode(), pickList);
 
             // TODO: Update the database.
-            //databaseHandler.updateWarehouseFromCustomerOrder(theWarehouse, randomUnfulfilledOrder.getOrderNumber());
+            //databaseHandler.updateWarehouseFromCustomerOrder(theWarehouse, randomFillableOrder.getOrderNumber());
         }
         System.out.println("=== End of part 7");
         System.out.println();
@@ -243,26 +258,25 @@ public class Main {
 
     /**
      * Store the contents of a random delivery in the warehouse.
+     * The deliveries must already have been loaded with their items.
      */
-    public static void part8(Warehouse theWarehouse, AllDeliveries allDeliveries)
-            throws SQLException {
+    public static void part8(Warehouse theWarehouse, AllDeliveries allDeliveries) {
         System.out.println("Part 8 tests");
         // TODO: Complete this part.
 
-        AllOrderItems allOrderItems = databaseHandler.readOrderItems("deliveryItems");
-
-        for (OrderItem order: allOrderItems.getOrderItems()) {
-            Batch aBatch = new Batch(order.partCode(), order.quantity());
-            Delivery aDelivery = allDeliveries.getDelivery(order.orderNumber());
-            aDelivery.addBatch(aBatch);
-        }
-
         List<Delivery> unfulfilledDeliveries = allDeliveries.getOutstandingDeliveryNumbers();
 
         if (!unfulfilledDeliveries.isEmpty()) {
             Delivery randomDelivery = unfulfilledDeliveries.get(rand.nextInt(unfulfilledDeliveries.size()));
 
             System.out.println(randomDelivery);
+            if (!theWarehouse.canBeStored(randomDelivery)) {
+                System.out.printf("Delivery %d needs %d empty locations but only %d are free.%n",
+                        randomDelivery.getOrderNumber(), theWarehouse.slotsNeeded(randomDelivery), theWarehouse.freeSlotCount());
+                System.out.println("=== End of part 8");
+                System.out.println();
+                return;
+            }
             List<Location> storedLocations = theWarehouse.storeDelivery(randomDelivery);
             randomDelivery.setFulfilled();
 
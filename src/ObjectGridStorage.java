@@ -0,0 +1,67 @@
+/**
+ * Grid storage that keeps a Batch object for every occupied slot.
+ * The batches handed out are the ones stored, so changes to them are seen by the warehouse.
+ * @author Nathan Thompson - njt38
+ */
+public class ObjectGridStorage implements GridStorage {
+    // The batch in each slot.
+    // Empty slots must be stored as null values.
+    private final Batch[] batches;
+
+    /**
+     * Create storage with the given number of empty slots.
+     * @param size The number of slots.
+     */
+    public ObjectGridStorage(int size) {
+        batches = new Batch[size];
+    }
+
+    @Override
+    public int size() {
+        return batches.length;
+    }
+
+    @Override
+    public boolean isEmpty(int slot) {
+        return batches[slot] == null;
+    }
+
+    @Override
+    public int getPartCode(int slot) {
+        return batches[slot].getPartCode();
+    }
+
+    @Override
+    public int getQuantity(int slot) {
+        return batches[slot] == null ? 0 : batches[slot].getQuantity();
+    }
+
+    @Override
+    public Batch getBatch(int slot) {
+        return batches[slot];
+    }
+
+    @Override
+    public void put(int slot, Batch batch) {
+        batches[slot] = batch;
+    }
+
+    @Override
+    public void put(int slot, int partCode, int quantity) {
+        batches[slot] = new Batch(partCode, quantity);
+    }
+
+    @Override
+    public void changeQuantity(int slot, int amount) {
+        if (amount >= 0) {
+            batches[slot].increaseQuantity(amount);
+        } else {
+            batches[slot].reduceQuantity(-amount);
+        }
+    }
+
+    @Override
+    public void clear(int slot) {
+        batches[slot] = null;
+    }
+}
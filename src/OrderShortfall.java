@@ -0,0 +1,49 @@
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A record of how much of each part a customer order is short of.
+ * @author Nathan Thompson - njt38
+ * @param order The customer order.
+ * @param shortfall The quantity missing of each part code that there is not enough of, empty if the order can be filled.
+ */
+public record OrderShortfall(CustomerOrder order, Map<Integer, Integer> shortfall) {
+
+    /**
+     * Works out what a pick list leaves the customer order short of, as createAPickList picks what there is.
+     * @param order The customer order.
+     * @param pickList The pick list made for it.
+     * @return The shortfall, which can be filled if the pick list covers the whole order.
+     */
+    public static OrderShortfall afterPicking(CustomerOrder order, List<PickListItem> pickList) {
+        Map<Integer, Integer> missing = new TreeMap<>();
+        for (Batch batch : order.getAllBatches().getBatches()) {
+            missing.merge(batch.getPartCode(), batch.getQuantity(), Integer::sum);
+        }
+        for (PickListItem item : pickList) {
+            missing.computeIfPresent(item.theBatch().getPartCode(), (k, quantity) -> quantity - item.theBatch().getQuantity());
+        }
+        missing.values().removeIf(quantity -> quantity <= 0);
+        return new OrderShortfall(order, missing);
+    }
+
+    /**
+     * Checks if the order can be filled.
+     * @return
+     */
+    public boolean canBeFilled() {
+        return shortfall.isEmpty();
+    }
+
+    /**
+     * Returns a formatted string of the shortfall.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return canBeFilled()
+                ? String.format("Customer order %d can be filled", order.getOrderNumber())
+                : String.format("Customer order %d is short of %s", order.getOrderNumber(), shortfall);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Grid storage that keeps the part codes and quantities in two flat int arrays.
+ * A quantity of 0 marks an empty slot, so putting an empty batch leaves the slot empty.
+ * The batches handed out are copies, so changes to them are not seen by the warehouse.
+ * @author Nathan Thompson - njt38
+ */
+public class PackedGridStorage implements GridStorage {
+    // The part code in each slot.
+    private final int[] partCodes;
+    // The quantity in each slot, 0 when the slot is empty.
+    private final int[] quantities;
+
+    /**
+     * Create storage with the given number of empty slots.
+     * @param size The number of slots.
+     */
+    public PackedGridStorage(int size) {
+        partCodes = new int[size];
+        quantities = new int[size];
+    }
+
+    @Override
+    public int size() {
+        return quantities.length;
+    }
+
+    @Override
+    public boolean isEmpty(int slot) {
+        return quantities[slot] == 0;
+    }
+
+    @Override
+    public int getPartCode(int slot) {
+        return partCodes[slot];
+    }
+
+    @Override
+    public int getQuantity(int slot) {
+        return quantities[slot];
+    }
+
+    @Override
+    public Batch getBatch(int slot) {
+        if (quantities[slot] == 0) {
+            return null;
+        }
+        return new Batch(partCodes[slot], quantities[slot]);
+    }
+
+    @Override
+    public void put(int slot, Batch batch) {
+        put(slot, batch.getPartCode(), batch.getQuantity());
+    }
+
+    @Override
+    public void put(int slot, int partCode, int quantity) {
+        partCodes[slot] = quantity == 0 ? 0 : partCode;
+        quantities[slot] = quantity;
+    }
+
+    @Override
+    public void changeQuantity(int slot, int amount) {
+        quantities[slot] += amount;
+        if (quantities[slot] == 0) {
+            partCodes[slot] = 0;
+        }
+    }
+
+    @Override
+    public void clear(int slot) {
+        partCodes[slot] = 0;
+        quantities[slot] = 0;
+    }
+}
@@ -0,0 +1,19 @@
+import java.util.List;
+
+/**
+ * A record representing a pick list put in the order it should be walked.
+ * @author Nathan Thompson - njt38
+ * @param pickList The items to pick, in the order they are visited.
+ * @param length The Manhattan distance walked from the depot, through every item and back again.
+ */
+public record PickRoute(List<PickListItem> pickList, int length) {
+
+    /**
+     * Returns a formatted string of the route.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("Route of length %d visiting %d locations: %s", length, pickList.size(), pickList);
+    }
+}
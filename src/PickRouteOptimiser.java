@@ -0,0 +1,307 @@
+import java.util.*;
+
+/**
+ * Orders a pick list to shorten the walk around the warehouse floor.
+ * Distances are Manhattan distances between locations, and every route starts and ends at the depot.
+ * The stock for each part is taken from the nearest location that still has some, and the order the locations
+ * are visited in is then improved with 2-opt and by swapping locations for nearer ones holding the same part,
+ * until no change helps or the time budget runs out.
+ * @author Nathan Thompson - njt38
+ */
+public class PickRouteOptimiser {
+    // The default time allowed for improving a route.
+    private static final long DEFAULT_TIME_BUDGET_NANOS = 1_000_000L;
+    // Where every route starts and ends.
+    private final Location depot;
+    // How long improving a route may take, in nanoseconds.
+    private final long timeBudgetNanos;
+
+    /**
+     * Create an optimiser for routes starting and ending at (0, 0) that spends at most a millisecond on each.
+     */
+    public PickRouteOptimiser() {
+        this(new Location(0, 0), DEFAULT_TIME_BUDGET_NANOS);
+    }
+
+    /**
+     * Create an optimiser.
+     * @param depot Where every route starts and ends.
+     * @param timeBudgetNanos How long improving a route may take. With no time the nearest location is always used.
+     */
+    public PickRouteOptimiser(Location depot, long timeBudgetNanos) {
+        if (timeBudgetNanos < 0) {
+            throw new IllegalArgumentException("The time budget cannot be negative: " + timeBudgetNanos);
+        }
+        this.depot = depot;
+        this.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    /**
+     * Get where every route starts and ends.
+     * @return The depot.
+     */
+    public Location getDepot() {
+        return depot;
+    }
+
+    /**
+     * Work out the length of walking the pick list in the order given, from the depot and back.
+     * Use this on a list from createAPickList to measure the saving of an optimised route.
+     * @param pickList The pick list.
+     * @return The Manhattan distance walked.
+     */
+    public int lengthOf(List<PickListItem> pickList) {
+        int length = 0;
+        Location from = depot;
+        for (PickListItem item : pickList) {
+            length += distance(from.row(), from.col(), item.theLocation().row(), item.theLocation().col());
+            from = item.theLocation();
+        }
+        return length + distance(from.row(), from.col(), depot.row(), depot.col());
+    }
+
+    /**
+     * Plan a route that picks the demand from the stock.
+     * Parts that there is not enough stock of are picked as far as they can be.
+     * @param stock The locations that could be picked from, each with the batch held there.
+     * @param demand The quantity wanted of each part code.
+     * @return The items to pick, in the order to visit them.
+     */
+    public PickRoute plan(List<PickListItem> stock, Map<Integer, Integer> demand) {
+        int size = stock.size();
+        int[] rows = new int[size], cols = new int[size], partCodes = new int[size], quantities = new int[size];
+        for (int index = 0; index < size; index++) {
+            PickListItem item = stock.get(index);
+            rows[index] = item.theLocation().row();
+            cols[index] = item.theLocation().col();
+            partCodes[index] = item.theBatch().getPartCode();
+            quantities[index] = item.theBatch().getQuantity();
+        }
+        return plan(rows, cols, partCodes, quantities, demand);
+    }
+
+    /**
+     * Plan a route that picks the demand from the stock, given as one array entry for each location.
+     * Ties between locations at the same distance go to the one nearest the start of the arrays.
+     * @param rows The row of each location.
+     * @param cols The column of each location.
+     * @param partCodes The part code held at each location.
+     * @param quantities The quantity held at each location.
+     * @param demand The quantity wanted of each part code.
+     * @return The items to pick, in the order to visit them.
+     */
+    PickRoute plan(int[] rows, int[] cols, int[] partCodes, int[] quantities, Map<Integer, Integer> demand) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        int[][] locationsOfPart = groupByPart(partCodes, quantities, demand);
+        int[] left = new int[locationsOfPart.length];
+        int part = 0;
+        for (int quantity : demand.values()) {
+            left[part++] = quantity;
+        }
+        int[] needed = new int[rows.length];
+
+        // Build a route by always walking to the nearest location holding a part that is still wanted.
+        int[] stops = new int[rows.length];
+        int numStops = 0;
+        boolean[] visited = new boolean[rows.length];
+        int row = depot.row(), col = depot.col();
+        while (true) {
+            int nearest = -1, nearestPart = -1;
+            int nearestDistance = Integer.MAX_VALUE;
+            for (part = 0; part < locationsOfPart.length; part++) {
+                if (left[part] <= 0) {
+                    continue;
+                }
+                for (int index : locationsOfPart[part]) {
+                    int distance = distance(row, col, rows[index], cols[index]);
+                    if (!visited[index] && (distance < nearestDistance || distance == nearestDistance && index < nearest)) {
+                        nearest = index;
+                        nearestPart = part;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+            if (nearest < 0) {
+                break;
+            }
+            needed[nearest] = Math.min(left[nearestPart], quantities[nearest]);
+            left[nearestPart] -= needed[nearest];
+            visited[nearest] = true;
+            stops[numStops++] = nearest;
+            row = rows[nearest];
+            col = cols[nearest];
+        }
+
+        // Keep improving the route while the budget lasts.
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = twoOpt(stops, numStops, rows, cols, deadline);
+            improved |= swapLocations(stops, numStops, rows, cols, locationsOfPart, quantities, needed, visited, deadline);
+        }
+
+        List<PickListItem> pickList = new ArrayList<>(numStops);
+        for (int stop = 0; stop < numStops; stop++) {
+            int index = stops[stop];
+            pickList.add(new PickListItem(new Location(rows[index], cols[index]),
+                    new Batch(partCodes[index], needed[index])));
+        }
+        return new PickRoute(pickList, lengthOf(stops, numStops, rows, cols));
+    }
+
+    /**
+     * Reverse any stretch of the route that makes it shorter.
+     * @param stops The locations in the order they are visited.
+     * @param numStops The number of stops.
+     * @param rows The row of each location.
+     * @param cols The column of each location.
+     * @param deadline When to give up.
+     * @return true if the route was changed.
+     */
+    private boolean twoOpt(int[] stops, int numStops, int[] rows, int[] cols, long deadline) {
+        boolean changed = false;
+        for (int first = 0; first < numStops - 1; first++) {
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+            int beforeRow = first == 0 ? depot.row() : rows[stops[first - 1]];
+            int beforeCol = first == 0 ? depot.col() : cols[stops[first - 1]];
+            for (int last = first + 1; last < numStops; last++) {
+                int afterRow = last == numStops - 1 ? depot.row() : rows[stops[last + 1]];
+                int afterCol = last == numStops - 1 ? depot.col() : cols[stops[last + 1]];
+                int start = stops[first], end = stops[last];
+                int saving = distance(beforeRow, beforeCol, rows[start], cols[start])
+                        + distance(rows[end], cols[end], afterRow, afterCol)
+                        - distance(beforeRow, beforeCol, rows[end], cols[end])
+                        - distance(rows[start], cols[start], afterRow, afterCol);
+                if (saving > 0) {
+                    for (int i = first, j = last; i < j; i++, j--) {
+                        int stop = stops[i];
+                        stops[i] = stops[j];
+                        stops[j] = stop;
+                    }
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replace any stop with an unvisited location holding enough of the same part if that shortens the route.
+     * @param stops The locations in the order they are visited.
+     * @param numStops The number of stops.
+     * @param rows The row of each location.
+     * @param cols The column of each location.
+     * @param locationsOfPart The locations holding each wanted part.
+     * @param quantities The quantity held at each location.
+     * @param needed The quantity to pick from each location.
+     * @param visited Whether each location is on the route.
+     * @param deadline When to give up.
+     * @return true if the route was changed.
+     */
+    private boolean swapLocations(int[] stops, int numStops, int[] rows, int[] cols, int[][] locationsOfPart,
+                                  int[] quantities, int[] needed, boolean[] visited, long deadline) {
+        // Find which part each stop is for.
+        int[] partOf = new int[rows.length];
+        for (int part = 0; part < locationsOfPart.length; part++) {
+            for (int index : locationsOfPart[part]) {
+                partOf[index] = part;
+            }
+        }
+        boolean changed = false;
+        for (int stop = 0; stop < numStops; stop++) {
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+            int current = stops[stop];
+            int beforeRow = stop == 0 ? depot.row() : rows[stops[stop - 1]];
+            int beforeCol = stop == 0 ? depot.col() : cols[stops[stop - 1]];
+            int afterRow = stop == numStops - 1 ? depot.row() : rows[stops[stop + 1]];
+            int afterCol = stop == numStops - 1 ? depot.col() : cols[stops[stop + 1]];
+            int best = current;
+            int bestCost = distance(beforeRow, beforeCol, rows[current], cols[current])
+                    + distance(rows[current], cols[current], afterRow, afterCol);
+            for (int index : locationsOfPart[partOf[current]]) {
+                if (!visited[index] && quantities[index] >= needed[current]) {
+                    int cost = distance(beforeRow, beforeCol, rows[index], cols[index])
+                            + distance(rows[index], cols[index], afterRow, afterCol);
+                    if (cost < bestCost) {
+                        best = index;
+                        bestCost = cost;
+                    }
+                }
+            }
+            if (best != current) {
+                needed[best] = needed[current];
+                needed[current] = 0;
+                visited[best] = true;
+                visited[current] = false;
+                stops[stop] = best;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Group the locations that have stock by which of the wanted parts they hold, in the order of the demand.
+     * Locations holding parts that are not wanted are left out.
+     * @param partCodes The part code held at each location.
+     * @param quantities The quantity held at each location.
+     * @param demand The quantity wanted of each part code.
+     * @return The locations holding each wanted part.
+     */
+    private static int[][] groupByPart(int[] partCodes, int[] quantities, Map<Integer, Integer> demand) {
+        Map<Integer, Integer> partNumbers = new HashMap<>();
+        for (int partCode : demand.keySet()) {
+            partNumbers.put(partCode, partNumbers.size());
+        }
+        int[] counts = new int[partNumbers.size()];
+        int[] partOf = new int[partCodes.length];
+        for (int index = 0; index < partCodes.length; index++) {
+            Integer part = partNumbers.get(partCodes[index]);
+            partOf[index] = part == null || quantities[index] <= 0 ? -1 : part;
+            if (partOf[index] >= 0) {
+                counts[partOf[index]]++;
+            }
+        }
+        int[][] locationsOfPart = new int[counts.length][];
+        for (int part = 0; part < counts.length; part++) {
+            locationsOfPart[part] = new int[counts[part]];
+            counts[part] = 0;
+        }
+        for (int index = 0; index < partCodes.length; index++) {
+            if (partOf[index] >= 0) {
+                locationsOfPart[partOf[index]][counts[partOf[index]]++] = index;
+            }
+        }
+        return locationsOfPart;
+    }
+
+    /**
+     * Work out the length of a route from the depot, through the stops and back.
+     * @param stops The locations in the order they are visited.
+     * @param numStops The number of stops.
+     * @param rows The row of each location.
+     * @param cols The column of each location.
+     * @return The Manhattan distance walked.
+     */
+    private int lengthOf(int[] stops, int numStops, int[] rows, int[] cols) {
+        int length = 0;
+        int row = depot.row(), col = depot.col();
+        for (int stop = 0; stop < numStops; stop++) {
+            length += distance(row, col, rows[stops[stop]], cols[stops[stop]]);
+            row = rows[stops[stop]];
+            col = cols[stops[stop]];
+        }
+        return length + distance(row, col, depot.row(), depot.col());
+    }
+
+    /**
+     * The Manhattan distance between two locations.
+     * @return The number of rows plus the number of columns between them.
+     */
+    private static int distance(int fromRow, int fromCol, int toRow, int toCol) {
+        return Math.abs(fromRow - toRow) + Math.abs(fromCol - toCol);
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stock held in the warehouse for a customer order until it is picked or given back.
+ * A reservation is made by Warehouse.reserve, and is closed by either commit or release, exactly once.
+ * @author Nathan Thompson - njt38
+ */
+public class Reservation {
+    // The warehouse holding the stock.
+    private final Warehouse warehouse;
+    // The order the stock is held for.
+    private final CustomerOrder order;
+    // The quantity of each part code held.
+    private final Map<Integer, Integer> quantities;
+    // Whether the reservation has been committed or released.
+    private boolean closed = false;
+
+    /**
+     * Create a reservation for stock the warehouse has already set aside.
+     * @param warehouse The warehouse holding the stock.
+     * @param order The order the stock is held for.
+     * @param quantities The quantity of each part code held.
+     */
+    Reservation(Warehouse warehouse, CustomerOrder order, Map<Integer, Integer> quantities) {
+        this.warehouse = warehouse;
+        this.order = order;
+        this.quantities = Collections.unmodifiableMap(quantities);
+    }
+
+    /**
+     * Get the order the stock is held for.
+     * @return The customer order.
+     */
+    public CustomerOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Get the quantity of each part code held.
+     * @return The quantities by part code.
+     */
+    public Map<Integer, Integer> getQuantities() {
+        return quantities;
+    }
+
+    /**
+     * Check whether the stock is still held.
+     * @return true if neither commit nor release has been called.
+     */
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Pick the held stock out of the warehouse.
+     * @return The pick list, which always covers the whole order.
+     * @throws IllegalStateException If the reservation has already been committed or released.
+     */
+    public List<PickListItem> commit() {
+        close();
+        return warehouse.commitReservation(this);
+    }
+
+    /**
+     * Give the held stock back so that other orders can have it.
+     * @throws IllegalStateException If the reservation has already been committed or released.
+     */
+    public void release() {
+        close();
+        warehouse.releaseReservation(this);
+    }
+
+    /**
+     * Mark the reservation as closed.
+     * @throws IllegalStateException If it was already closed.
+     */
+    private synchronized void close() {
+        if (closed) {
+            throw new IllegalStateException("Reservation for order " + order.getOrderNumber() + " is already closed.");
+        }
+        closed = true;
+    }
+}
@@ -0,0 +1,105 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Set SQLite up for the way the warehouse uses it on startup: a write-ahead log, so the web pages can read
+ * while orders are written and a commit costs one append instead of rewriting pages twice; a larger page cache
+ * and memory-mapped reads; and an index on every column the programs look rows up or join by, as the tables
+ * come without any. Everything is idempotent, so it can be run every time the database is opened.
+ * @author Nathan Thompson - njt38
+ */
+public class SQLiteTuning {
+    // The settings that last only as long as a connection, so every connection needs them.
+    // synchronous = NORMAL is safe with a write-ahead log: a crash can lose the last commits but never corrupts.
+    private static final List<String> CONNECTION_PRAGMAS = List.of(
+            "pragma synchronous = NORMAL",
+            "pragma cache_size = -16384",
+            "pragma mmap_size = 268435456",
+            "pragma busy_timeout = 5000");
+    // The columns to index, as table and column.
+    private static final List<List<String>> INDEXES = List.of(
+            List.of("warehouse", "location"),
+            List.of("warehouse", "partCode"),
+            List.of("customerOrders", "orderNumber"),
+            List.of("customerOrderItems", "orderNumber"),
+            List.of("purchaseOrders", "purchaseOrderNumber"),
+            List.of("purchaseOrderItems", "purchaseOrderNumber"),
+            List.of("deliveries", "deliveryNumber"),
+            List.of("deliveryItems", "deliveryNumber"),
+            List.of("parts", "partCode"),
+            List.of("partTypes", "type"),
+            List.of("customers", "customerCode"));
+
+    /**
+     * Set up the connection, switch the database to a write-ahead log, which it keeps from then on, and add any
+     * missing indexes. A failure is reported and the database is used as it is, as nothing depends on it.
+     * @param connection A connection that can write to the database, in auto-commit mode.
+     * @return true if everything was set up.
+     */
+    public static boolean apply(Connection connection) {
+        try {
+            // First, so changing the journal waits for anyone else using the database rather than failing.
+            configure(connection);
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("pragma journal_mode = WAL")) {
+                // SQLite answers with the mode it is now in, which stays the same if it cannot change.
+                if (resultSet.next() && !resultSet.getString(1).equalsIgnoreCase("wal")) {
+                    System.err.println("The database is using the " + resultSet.getString(1)
+                            + " journal, not a write-ahead log.");
+                }
+            }
+            createIndexes(connection);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Failed to tune the database: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Apply the settings that last only as long as a connection.
+     * @param connection The connection.
+     * @throws SQLException If a setting cannot be applied.
+     */
+    public static void configure(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : CONNECTION_PRAGMAS) {
+                statement.execute(pragma);
+            }
+        }
+    }
+
+    /**
+     * Create each index that is missing, in one transaction.
+     * @param connection A connection that can write to the database, in auto-commit mode.
+     * @throws SQLException If the indexes cannot be created, in which case none are.
+     */
+    public static void createIndexes(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (List<String> index : INDEXES) {
+                statement.executeUpdate(String.format("create index if not exists %s on %s (%s)",
+                        indexName(index.get(0), index.get(1)), index.get(0), index.get(1)));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Get the name of the index on a column.
+     * @param table The table.
+     * @param column The column.
+     * @return The name of the index.
+     */
+    private static String indexName(String table, String column) {
+        return table + "_" + column + "_index";
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * A set of slot numbers kept in ascending order in an int array.
+ * Used by the warehouse to index the slots holding each part code without boxing.
+ * @author Nathan Thompson - njt38
+ */
+public class SlotSet {
+    // The slots, in ascending order, in the first size elements.
+    private int[] slots = new int[4];
+    // The number of slots in the set.
+    private int size;
+
+    /**
+     * Adds a slot to the set.
+     * @param slot
+     */
+    public void add(int slot) {
+        // Slots are usually added in grid order, which needs no search.
+        int index = size == 0 || slots[size - 1] < slot ? -size - 1 : Arrays.binarySearch(slots, 0, size, slot);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        System.arraycopy(slots, index, slots, index + 1, size - index);
+        slots[index] = slot;
+        size++;
+    }
+
+    /**
+     * Removes a slot from the set.
+     * @param slot
+     */
+    public void remove(int slot) {
+        int index = Arrays.binarySearch(slots, 0, size, slot);
+        if (index >= 0) {
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Returns the number of slots in the set.
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the set has no slots.
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the slot at the given position in ascending order.
+     * @param index
+     * @return
+     */
+    public int get(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Returns a copy of the slots in ascending order.
+     * @return
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(slots, size);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (other == null || getClass() != other.getClass()) return false;
+        SlotSet slotSet = (SlotSet) other;
+        return Arrays.equals(slots, 0, size, slotSet.slots, 0, slotSet.size);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int index = 0; index < size; index++) {
+            hash = 31 * hash + slots[index];
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a formatted string of the slots.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
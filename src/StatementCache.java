@@ -0,0 +1,63 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements used on a connection, each prepared the first time it is asked for and then reused,
+ * so SQLite parses and plans a query once rather than every time it is run.
+ * Statements are kept until the cache is closed, so it is only for a fixed set of queries, not ones built
+ * around values. Like the connection, it is for one thread at a time.
+ * @author Nathan Thompson - njt38
+ */
+public class StatementCache implements AutoCloseable {
+    // The connection the statements are prepared on.
+    private final Connection connection;
+    // The prepared statements by their SQL.
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * Create an empty cache.
+     * @param connection The connection the statements are prepared on.
+     */
+    public StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Get the prepared statement for the SQL, preparing it the first time it is asked for.
+     * Any result set from its last use is closed when it is run again.
+     * @param sql The SQL, with ? for each parameter.
+     * @return The statement.
+     * @throws SQLException If the SQL cannot be prepared.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Close every statement prepared so far. The connection is left open.
+     * @throws SQLException If a statement cannot be closed; the rest are still closed.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        statements.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
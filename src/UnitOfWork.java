@@ -0,0 +1,83 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes to the warehouse and the orders, deliveries and purchase orders they fulfil, written to the
+ * database together in one transaction, so a failure can never leave stock taken with its order still open.
+ * Several orders picked one after another can be added to the same unit and committed at once, which costs
+ * one commit instead of one for each.
+ * Created by DatabaseHandler.beginUnitOfWork.
+ * @author Nathan Thompson - njt38
+ */
+public class UnitOfWork {
+    // The database the unit is written to.
+    private final DatabaseHandler databaseHandler;
+    // The warehouse whose changes are written.
+    private final Warehouse warehouse;
+    // What the changes fulfil.
+    private final List<Fulfilment> fulfilments = new ArrayList<>();
+
+    /**
+     * Create an empty unit of work.
+     * @param databaseHandler The database the unit is written to.
+     * @param warehouse The warehouse whose changes are written.
+     */
+    UnitOfWork(DatabaseHandler databaseHandler, Warehouse warehouse) {
+        this.databaseHandler = databaseHandler;
+        this.warehouse = warehouse;
+    }
+
+    /**
+     * Mark a customer order as fulfilled when the unit is committed.
+     * @param orderNumber The customer order number.
+     * @return This unit of work.
+     */
+    public UnitOfWork customerOrderFulfilled(int orderNumber) {
+        fulfilments.add(Fulfilment.customerOrder(orderNumber));
+        return this;
+    }
+
+    /**
+     * Mark a delivery as fulfilled when the unit is committed.
+     * @param deliveryNumber The delivery number.
+     * @return This unit of work.
+     */
+    public UnitOfWork deliveryFulfilled(int deliveryNumber) {
+        fulfilments.add(Fulfilment.delivery(deliveryNumber));
+        return this;
+    }
+
+    /**
+     * Mark a purchase order as fulfilled when the unit is committed.
+     * @param purchaseOrderNumber The purchase order number.
+     * @return This unit of work.
+     */
+    public UnitOfWork purchaseOrderFulfilled(int purchaseOrderNumber) {
+        fulfilments.add(Fulfilment.purchaseOrder(purchaseOrderNumber));
+        return this;
+    }
+
+    /**
+     * Returns what the unit fulfils so far.
+     * @return
+     */
+    public List<Fulfilment> getFulfilments() {
+        return Collections.unmodifiableList(fulfilments);
+    }
+
+    /**
+     * Write the changes to the warehouse since it last matched the database and set the fulfilled flags,
+     * in one transaction. Afterwards the unit is empty, ready for the next orders.
+     * If anything fails, including a fulfilment that matches no row, nothing is written, and the warehouse
+     * and the unit are left as they were so the commit can be tried again.
+     * @return The number of rows written and deleted and how long it took.
+     * @throws SQLException If the unit cannot be written.
+     */
+    public WarehouseWriteReport commit() throws SQLException {
+        WarehouseWriteReport report = databaseHandler.writeTransaction(warehouse, fulfilments);
+        fulfilments.clear();
+        return report;
+    }
+}
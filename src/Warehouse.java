@@ -1,4 +1,6 @@
+import java.nio.IntBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The warehouse.
@@ -10,11 +12,34 @@ import java.util.*;
 public class Warehouse {
     // The maximum quantity in any location of the grid.
     private static final int MAX_AMOUNT = 500;
+    // Fewer orders than this are checked on one thread, as splitting the work would cost more than it saves.
+    private static final int PARALLEL_THRESHOLD = 2048;
     // The number of rows and columns.
     private final int numRows, numCols;
-    // The grid.
-    // Empty locations must be stored as null values.
-    private final Batch[][] grid;
+    // The grid, stored as slots numbered row * numCols + col.
+    private final GridStorage grid;
+    // The slots holding each part code, in grid order.
+    // Concurrent maps so that ConcurrentWarehouse can change different parts from different threads.
+    private final Map<Integer, SlotSet> partSlots = new ConcurrentHashMap<>();
+    // The total quantity of each part code held in the grid.
+    private final Map<Integer, Integer> partTotals = new ConcurrentHashMap<>();
+    // The quantity of each part code held by open reservations.
+    private final Map<Integer, Integer> partReserved = new ConcurrentHashMap<>();
+    // The empty slots, with a bit set for every slot that is free.
+    private final BitSet freeSlots;
+    // The number of free slots.
+    private int freeSlotCount;
+    // No slot before this one is free.
+    private int firstFreeSlot;
+    // The slots changed since the database was last brought up to date.
+    private final BitSet changedSlots = new BitSet();
+    // Whether changedSlots covers every difference from the database.
+    private boolean trackingChanges = false;
+    // Whether every change should be checked against a scan of the grid.
+    private static boolean checkIndexes = false;
+    // Where every change to a slot is recorded, or null if changes are not journalled. Only read by the thread
+    // changing the grid, which ConcurrentWarehouse makes safe by setting it under every stripe lock.
+    private WarehouseJournal journal;
 
     /**
      * Create an empty warehouse of the given number of rows and columns.
@@ -22,29 +47,73 @@ public class Warehouse {
      * @param numCols The number of columns.
      */
     public Warehouse(int numRows, int numCols){
+        this(numRows, numCols, new ObjectGridStorage(numRows * numCols));
+    }
+
+    /**
+     * Create an empty warehouse of the given number of rows and columns that keeps its batches in the given storage.
+     * @param numRows The number of rows.
+     * @param numCols The number of columns.
+     * @param storage Empty storage with a slot for every location.
+     */
+    public Warehouse(int numRows, int numCols, GridStorage storage){
+        if (storage.size() != numRows * numCols) {
+            throw new IllegalArgumentException(String.format("Storage has %d slots but the grid has %d locations.",
+                    storage.size(), numRows * numCols));
+        }
         this.numRows = numRows;
         this.numCols = numCols;
-        grid = new Batch[this.numRows][this.numCols];
+        grid = storage;
+        freeSlotCount = numRows * numCols;
+        freeSlots = new BitSet(freeSlotCount);
+        freeSlots.set(0, freeSlotCount);
+        firstFreeSlot = 0;
     }
 
     /**
      * Add a batch to the warehouse using the 2d array location
      * @param location
      * @param batch
+     * @throws IllegalStateException If it would replace stock that open reservations hold, which must be
+     *                               released first. Nothing is changed.
      */
     public void addToWarehouse(Location location, Batch batch) {
-        grid[location.row()][location.col()] = batch;
+        int slot = slotOf(location);
+        if (!grid.isEmpty(slot)) {
+            int partCode = grid.getPartCode(slot);
+            int left = getPartCount(partCode) - grid.getQuantity(slot);
+            if (batch != null && batch.getPartCode() == partCode) {
+                left += batch.getQuantity();
+            }
+            if (left < partReserved.getOrDefault(partCode, 0)) {
+                throw new IllegalStateException(String.format(
+                        "Cannot replace the stock at %s, as part %d is held by a reservation.", location, partCode));
+            }
+        }
+        markChanged(slot);
+        if (!grid.isEmpty(slot)) {
+            removeFromIndex(slot, grid.getPartCode(slot), grid.getQuantity(slot));
+            grid.clear(slot);
+            releaseSlot(slot);
+        }
+        if (batch != null) {
+            grid.put(slot, batch);
+            if (!grid.isEmpty(slot)) {
+                claimSlot(slot);
+                addToIndex(slot, batch.getPartCode(), batch.getQuantity());
+            }
+        }
+        journalSlot(WarehouseJournal.ADD, slot);
+        verifyIfChecking();
     }
 
     /**
      * Print all the occupied locations with their batches in the warehouse.
      */
     public void printOccupiedLocations() {
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numCols; col++) {
-                if (grid[row][col] != null) {
-                    System.out.printf("%d,%d: %s%n", row, col, grid[row][col]);
-                }
+        for (int slot = 0; slot < grid.size(); slot++) {
+            if (!grid.isEmpty(slot)) {
+                System.out.printf("%d,%d: %s%n", slot / numCols, slot % numCols, grid.getBatch(slot));
             }
         }
     }
@@ -54,24 +123,21 @@ public class Warehouse {
      * @return
      */
     public ArrayList<Location> getPartLocations() {
-        ArrayList<Location> locations = new ArrayList<>();
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numCols; col++) {
-                if (grid[row][col] != null) {
-                    locations.add(new Location(row, col));
-                }
-            }
+        ArrayList<Location> locations = new ArrayList<>(grid.size() - freeSlotCount);
+        for (int slot = freeSlots.nextClearBit(0); slot < grid.size(); slot = freeSlots.nextClearBit(slot + 1)) {
+            locations.add(locationOf(slot));
         }
         return locations;
     }
 
     /**
      * Returns the batch at the given location.
+     * With packed storage this is a copy, so changing it does not change the warehouse.
      * @param location
      * @return
      */
     public Batch getBatchAt(Location location) {
-        return grid[location.row()][location.col()];
+        return grid.getBatch(slotOf(location));
     }
 
     /**
@@ -79,13 +145,9 @@ public class Warehouse {
      * @return
      */
     public List<Integer> getAvailablePartCodes() {
-        List<Integer> partCodes = new ArrayList<>();
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numCols; col++) {
-                if (grid[row][col] != null) {
-                     partCodes.add(grid[row][col].getPartCode());
-                }
-            }
+        List<Integer> partCodes = new ArrayList<>(grid.size() - freeSlotCount);
+        for (int slot = freeSlots.nextClearBit(0); slot < grid.size(); slot = freeSlots.nextClearBit(slot + 1)) {
+            partCodes.add(grid.getPartCode(slot));
         }
         return partCodes;
     }
@@ -96,15 +158,16 @@ public class Warehouse {
      * @return
      */
     public int getPartCount (int partCode) {
-        int count = 0;
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numCols; col++) {
-                if (grid[row][col] != null && grid[row][col].getPartCode() == partCode) {
-                    count += grid[row][col].getQuantity();
-                }
-            }
-        }
-        return count;
+        return partTotals.getOrDefault(partCode, 0);
+    }
+
+    /**
+     * Returns the count of the given part code that is not held by a reservation.
+     * @param partCode
+     * @return
+     */
+    public int getAvailableCount(int partCode) {
+        return getPartCount(partCode) - partReserved.getOrDefault(partCode, 0);
     }
 
     /**
@@ -113,32 +176,97 @@ public class Warehouse {
      * @return
      */
     public List<Location> findPart(int partCode) {
-        List<Location> locations = new ArrayList<>();
-        for (int row = 0; row < numRows; row++) {
-            for (int col = 0; col < numCols; col++) {
-                if (grid[row][col] != null && grid[row][col].getPartCode() == partCode) {
-                    locations.add(new Location(row, col));
-                }
-            }
-        }
-        return locations;
+        SlotSet slots = partSlots.get(partCode);
+        return new SlotLocations(slots == null ? new int[0] : slots.toArray());
     }
 
     /**
-     * Checks if the warehouse can fill the customer order.
+     * Checks if the warehouse can fill the customer order from the stock that is not reserved.
+     * Another thread may take the stock before the order is picked, so use reserve to be sure of it.
      * @param customerOrder
      * @return
      */
     public boolean canBeFilled(CustomerOrder customerOrder) {
         AllBatches allBatches = customerOrder.getAllBatches();
         for (Batch aBatch : allBatches.getBatches()) {
-            if (getPartCount(aBatch.getPartCode()) < aBatch.getQuantity()) {
+            if (getAvailableCount(aBatch.getPartCode()) < aBatch.getQuantity()) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Works out which of the customer orders can be filled, and what each of the others is short of.
+     * The stock is read once, and every order is checked against all of it, as canBeFilled would, rather than
+     * against what the orders before it would leave. Large batches of orders are checked in parallel.
+     * @param customerOrders The customer orders.
+     * @return The shortfall of each order, in the order given.
+     */
+    public List<OrderShortfall> findShortfalls(Collection<CustomerOrder> customerOrders) {
+        Map<Integer, Integer> available = availableSnapshot();
+        if (customerOrders.size() < PARALLEL_THRESHOLD) {
+            List<OrderShortfall> shortfalls = new ArrayList<>(customerOrders.size());
+            for (CustomerOrder customerOrder : customerOrders) {
+                shortfalls.add(shortfallOf(customerOrder, available));
+            }
+            return shortfalls;
+        }
+        return new ArrayList<>(customerOrders).parallelStream()
+                .map(customerOrder -> shortfallOf(customerOrder, available))
+                .toList();
+    }
+
+    /**
+     * Holds the stock for every part of the customer order, if there is enough of all of it.
+     * The stock stays in the grid, but canBeFilled and the pick list methods treat it as gone until the
+     * reservation is committed into a pick list or released.
+     * @param customerOrder
+     * @return The reservation, or null if the order cannot be filled, in which case nothing is held.
+     */
+    public Reservation reserve(CustomerOrder customerOrder) {
+        Map<Integer, Integer> quantities = quantitiesOf(customerOrder);
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            if (getAvailableCount(line.getKey()) < line.getValue()) {
+                return null;
+            }
+        }
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            partReserved.merge(line.getKey(), line.getValue(), Integer::sum);
+        }
+        verifyIfChecking();
+        return new Reservation(this, customerOrder, quantities);
+    }
+
+    /**
+     * Picks the stock held by an open reservation and closes it.
+     * Called by Reservation.commit.
+     * @param reservation The reservation.
+     * @return The pick list.
+     */
+    List<PickListItem> commitReservation(Reservation reservation) {
+        List<PickListItem> pickListItems = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+            // Pick before giving the reservation back, so the stock never looks available in between.
+            pickFromSlots(line.getKey(), line.getValue(), pickListItems);
+            unreserve(line.getKey(), line.getValue());
+        }
+        verifyIfChecking();
+        return pickListItems;
+    }
+
+    /**
+     * Gives the stock held by an open reservation back and closes it.
+     * Called by Reservation.release.
+     * @param reservation The reservation.
+     */
+    void releaseReservation(Reservation reservation) {
+        for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+            unreserve(line.getKey(), line.getValue());
+        }
+        verifyIfChecking();
+    }
+
     /**
      * Creates a purchase order to restock the warehouse.
      * @param allParts
@@ -175,9 +303,57 @@ public class Warehouse {
         return purchaseOrder;
     }
 
+    /**
+     * Creates one purchase order for everything the open orders need that is neither in stock nor on its way.
+     * The demand of each part is totalled over the unfulfilled customer orders, the unfulfilled purchase orders
+     * and deliveries are counted as stock on its way, and any part still short is ordered in whole locations
+     * of MAX_AMOUNT boxes. The orders are only read once, and the stock of each part comes from its running total.
+     * Purchase orders and deliveries are not linked in the database, and a delivery is usually the stock of a
+     * purchase order that is still open, so they are matched up part by part: the stock of a part on its way is
+     * whichever is larger of the quantity on open purchase orders and the quantity on deliveries not yet unloaded.
+     * @param customerOrders The customer orders; fulfilled ones are skipped.
+     * @param purchaseOrders The purchase orders; fulfilled ones are skipped.
+     * @param deliveries The deliveries; unloaded ones are skipped.
+     * @return The purchase order, or null if nothing needs ordering.
+     */
+    public PurchaseOrder createConsolidatedPurchaseOrder(Collection<CustomerOrder> customerOrders,
+                                                         Collection<PurchaseOrder> purchaseOrders,
+                                                         Collection<Delivery> deliveries) {
+        Map<Integer, Integer> needed = new TreeMap<>();
+        for (CustomerOrder customerOrder : customerOrders) {
+            if (!customerOrder.isFulfilled()) {
+                for (Batch batch : customerOrder.getAllBatches().getBatches()) {
+                    needed.merge(batch.getPartCode(), batch.getQuantity(), Integer::sum);
+                }
+            }
+        }
+        Map<Integer, Integer> onOrder = incoming(purchaseOrders);
+        for (Map.Entry<Integer, Integer> delivered : incoming(deliveries).entrySet()) {
+            onOrder.merge(delivered.getKey(), delivered.getValue(), Math::max);
+        }
+        for (Map.Entry<Integer, Integer> part : onOrder.entrySet()) {
+            needed.computeIfPresent(part.getKey(), (k, quantity) -> quantity - part.getValue());
+        }
+
+        PurchaseOrder purchaseOrder = new PurchaseOrder();
+        for (Map.Entry<Integer, Integer> part : needed.entrySet()) {
+            int shortfall = part.getValue() - getPartCount(part.getKey());
+            if (shortfall > 0) {
+                int locations = (shortfall + MAX_AMOUNT - 1) / MAX_AMOUNT;
+                purchaseOrder.addBatch(new Batch(part.getKey(), locations * MAX_AMOUNT));
+            }
+        }
+        if (purchaseOrder.getAllBatches().getBatches().isEmpty()) {
+            return null;
+        }
+        return purchaseOrder;
+    }
+
     /**
      * Creates a pick list for the customer order. It loops through the batches that are required then loops through the locations that contain the part code.
      * If the quantity needed is greater than the quantity available, it picks the quantity available and reduces the quantity needed. Adds it to the pick list.
+     * Stock held by reservations is not picked, so the list can be short; OrderShortfall.afterPicking says by how much.
+     * Use reserve and Reservation.commit to get a list that covers the whole order or nothing.
      * @param order
      * @return
      */
@@ -185,30 +361,144 @@ public class Warehouse {
         List<PickListItem> pickListItems = new ArrayList<>();
 
         for (Batch orderBatch : order.getAllBatches().getBatches()) {
-            int partCode = orderBatch.getPartCode();
-            int quantityNeeded = orderBatch.getQuantity();
-            List<Location> partLocations = findPart(partCode);
+            // Stock held by reservations is left for them.
+            int quantityNeeded = Math.min(orderBatch.getQuantity(), getAvailableCount(orderBatch.getPartCode()));
+            pickFromSlots(orderBatch.getPartCode(), quantityNeeded, pickListItems);
+        }
+        verifyIfChecking();
+        return pickListItems;
+    }
 
-            for (Location location : partLocations) {
-                if (quantityNeeded <= 0) {
-                    break;
+    /**
+     * Creates a pick list for the customer order in the order it should be walked.
+     * Unlike createAPickList, the stock of each part may come from any of its locations, and the optimiser chooses
+     * them and the order to visit them in to keep the walk short. The stock is taken out of the grid as it is picked.
+     * @param order The customer order.
+     * @param optimiser The route optimiser.
+     * @return The route, with its length.
+     */
+    public PickRoute createPickRoute(CustomerOrder order, PickRouteOptimiser optimiser) {
+        Map<Integer, Integer> demand = new LinkedHashMap<>();
+        int numLocations = 0;
+        for (Batch orderBatch : order.getAllBatches().getBatches()) {
+            SlotSet partLocations = partSlots.get(orderBatch.getPartCode());
+            if (partLocations != null && orderBatch.getQuantity() > 0) {
+                if (!demand.containsKey(orderBatch.getPartCode())) {
+                    numLocations += partLocations.size();
                 }
-                Batch warehouseBatch = getBatchAt(location);
-                int quantityAvailable = warehouseBatch.getQuantity();
+                demand.merge(orderBatch.getPartCode(), orderBatch.getQuantity(), Integer::sum);
+            }
+        }
+        // Stock held by reservations is left for them.
+        demand.replaceAll((partCode, quantity) -> Math.min(quantity, getAvailableCount(partCode)));
 
-                if (quantityAvailable > 0) {
-                    int quantityToPick = Math.min(quantityNeeded, quantityAvailable);
-                    pickListItems.add(new PickListItem(location, new Batch(orderBatch.getPartCode(), quantityToPick)));
-                    quantityNeeded -= quantityToPick;
-                    warehouseBatch.reduceQuantity(quantityToPick);
+        int[] rows = new int[numLocations], cols = new int[numLocations];
+        int[] partCodes = new int[numLocations], quantities = new int[numLocations];
+        int index = 0;
+        for (int partCode : demand.keySet()) {
+            for (int slot : partSlots.get(partCode).toArray()) {
+                rows[index] = slot / numCols;
+                cols[index] = slot % numCols;
+                partCodes[index] = partCode;
+                quantities[index] = grid.getQuantity(slot);
+                index++;
+            }
+        }
+
+        PickRoute route = optimiser.plan(rows, cols, partCodes, quantities, demand);
+        for (PickListItem item : route.pickList()) {
+            takeFromSlot(slotOf(item.theLocation()), item.theBatch().getPartCode(), item.theBatch().getQuantity());
+        }
+        verifyIfChecking();
+        return route;
+    }
+
+    /**
+     * Creates the pick lists for a wave of customer orders at once.
+     * Orders are considered in the order given, and each one is only picked if all of it can be filled from what
+     * is left after the orders before it. The stock for each part is then shared out between the orders in one pass
+     * over the locations of that part.
+     * @param orders The customer orders in the wave.
+     * @return The pick list of each picked order, the combined route and the orders that could not be filled.
+     * @throws IllegalArgumentException If two orders have the same order number, as the pick lists are kept by
+     *                                  order number. Nothing is picked.
+     */
+    public Wave createWavePickLists(Collection<CustomerOrder> orders) {
+        Set<Integer> orderNumbers = new HashSet<>();
+        for (CustomerOrder order : orders) {
+            if (!orderNumbers.add(order.getOrderNumber())) {
+                throw new IllegalArgumentException("Customer order " + order.getOrderNumber() + " is in the wave more than once.");
+            }
+        }
+
+        // Decide which orders can be filled, and collect the demand for each part in order.
+        Map<Integer, Integer> stockLeft = new HashMap<>();
+        Map<Integer, List<WaveLine>> demand = new HashMap<>();
+        Map<Integer, List<PickListItem>> pickLists = new LinkedHashMap<>();
+        List<CustomerOrder> notFilled = new ArrayList<>();
+        for (CustomerOrder order : orders) {
+            boolean canFill = true;
+            for (Batch line : order.getAllBatches().getBatches()) {
+                int left = stockLeft.computeIfAbsent(line.getPartCode(), this::getAvailableCount);
+                if (left < line.getQuantity()) {
+                    canFill = false;
+                    break;
+                }
+            }
+            if (!canFill) {
+                notFilled.add(order);
+                continue;
+            }
+            List<PickListItem> pickList = new ArrayList<>();
+            pickLists.put(order.getOrderNumber(), pickList);
+            for (Batch line : order.getAllBatches().getBatches()) {
+                if (line.getQuantity() > 0) {
+                    stockLeft.merge(line.getPartCode(), -line.getQuantity(), Integer::sum);
+                    demand.computeIfAbsent(line.getPartCode(), k -> new ArrayList<>()).add(new WaveLine(pickList, line.getQuantity()));
+                }
+            }
+        }
 
-                    if (warehouseBatch.getQuantity() == 0) {
-                        grid[location.row()][location.col()] = null;
+        // Share out each part's locations between the orders that want it.
+        Map<Integer, Integer> pickedFromSlot = new HashMap<>();
+        for (Map.Entry<Integer, List<WaveLine>> partDemand : demand.entrySet()) {
+            int partCode = partDemand.getKey();
+            int[] slots = partSlots.get(partCode).toArray();
+            int slotIndex = 0;
+            int quantityLeftInSlot = grid.getQuantity(slots[0]);
+            for (WaveLine line : partDemand.getValue()) {
+                List<PickListItem> pickList = line.pickList();
+                int quantityNeeded = line.quantity();
+                while (quantityNeeded > 0) {
+                    while (quantityLeftInSlot == 0) {
+                        slotIndex++;
+                        quantityLeftInSlot = grid.getQuantity(slots[slotIndex]);
                     }
+                    int quantityToPick = Math.min(quantityNeeded, quantityLeftInSlot);
+                    pickList.add(new PickListItem(locationOf(slots[slotIndex]), new Batch(partCode, quantityToPick)));
+                    pickedFromSlot.merge(slots[slotIndex], quantityToPick, Integer::sum);
+                    quantityNeeded -= quantityToPick;
+                    quantityLeftInSlot -= quantityToPick;
                 }
             }
         }
-        return pickListItems;
+
+        // Take the stock out of the grid, visiting each location once in grid order.
+        int[] routeSlots = new int[pickedFromSlot.size()];
+        int routeIndex = 0;
+        for (int slot : pickedFromSlot.keySet()) {
+            routeSlots[routeIndex++] = slot;
+        }
+        Arrays.sort(routeSlots);
+        List<PickListItem> route = new ArrayList<>(routeSlots.length);
+        for (int slot : routeSlots) {
+            int partCode = grid.getPartCode(slot);
+            int quantity = pickedFromSlot.get(slot);
+            route.add(new PickListItem(locationOf(slot), new Batch(partCode, quantity)));
+            takeFromSlot(slot, partCode, quantity);
+        }
+        verifyIfChecking();
+        return new Wave(pickLists, route, notFilled);
     }
 
     /**
@@ -224,35 +514,527 @@ public class Warehouse {
             int quantityToStore = batch.getQuantity();
 
             // Find already existing locations with the part
-            List<Location> existingLocations = findPart(partCode);
+            SlotSet existingLocations = partSlots.get(partCode);
 
             // Store the delivery in the existing locations
-            for (Location location : existingLocations) {
+            for (int index = 0; existingLocations != null && index < existingLocations.size(); index++) {
                 if (quantityToStore <= 0) {
                     break;
                 }
-                Batch existingBatch = getBatchAt(location);
-                int availableSpace = MAX_AMOUNT - existingBatch.getQuantity();
+                int slot = existingLocations.get(index);
+                int availableSpace = MAX_AMOUNT - grid.getQuantity(slot);
                 if (availableSpace > 0) {
                     int quantityToAdd = Math.min(quantityToStore, availableSpace);
-                    existingBatch.increaseQuantity(quantityToAdd);
+                    grid.changeQuantity(slot, quantityToAdd);
+                    partTotals.merge(partCode, quantityToAdd, Integer::sum);
+                    markChanged(slot);
+                    journalSlot(WarehouseJournal.STORE, slot);
                     quantityToStore -= quantityToAdd;
-                    updatedLocations.add(location);
+                    updatedLocations.add(locationOf(slot));
                 }
             }
 
             // Store the delivery in new locations, if needed
-            for (int row = 0; row < numRows && quantityToStore > 0; row++) {
-                for (int col = 0; col < numCols && quantityToStore > 0; col++) {
-                    if (grid[row][col] == null) {
-                        int quantityToAdd = Math.min(quantityToStore, MAX_AMOUNT);
-                        grid[row][col] = new Batch(partCode, quantityToAdd);
-                        quantityToStore -= quantityToAdd;
-                        updatedLocations.add(new Location(row, col));
-                    }
+            while (quantityToStore > 0) {
+                int slot = claimFreeSlot();
+                if (slot < 0) {
+                    break;
                 }
+                int quantityToAdd = Math.min(quantityToStore, MAX_AMOUNT);
+                grid.put(slot, partCode, quantityToAdd);
+                addToIndex(slot, partCode, quantityToAdd);
+                markChanged(slot);
+                journalSlot(WarehouseJournal.STORE, slot);
+                quantityToStore -= quantityToAdd;
+                updatedLocations.add(locationOf(slot));
             }
         }
+        verifyIfChecking();
         return updatedLocations;
     }
+
+    /**
+     * Returns the number of empty locations in the warehouse.
+     * @return
+     */
+    public int freeSlotCount() {
+        return freeSlotCount;
+    }
+
+    /**
+     * Returns the number of empty locations that storing the delivery would use, after topping up
+     * the locations that already hold its parts.
+     * @param delivery
+     * @return
+     */
+    public int slotsNeeded(Delivery delivery) {
+        int slotsNeeded = 0;
+        for (Batch batch : delivery.getAllBatches().getBatches()) {
+            int space = 0;
+            SlotSet slots = partSlots.get(batch.getPartCode());
+            for (int index = 0; slots != null && index < slots.size(); index++) {
+                space += Math.max(0, MAX_AMOUNT - grid.getQuantity(slots.get(index)));
+            }
+            int quantityLeft = batch.getQuantity() - space;
+            if (quantityLeft > 0) {
+                slotsNeeded += (quantityLeft + MAX_AMOUNT - 1) / MAX_AMOUNT;
+            }
+        }
+        return slotsNeeded;
+    }
+
+    /**
+     * Checks if the whole delivery fits in the warehouse, without changing anything.
+     * @param delivery
+     * @return
+     */
+    public boolean canBeStored(Delivery delivery) {
+        return slotsNeeded(delivery) <= freeSlotCount();
+    }
+
+    /**
+     * Returns the locations that have been added to, picked from or stored in since the last call to markClean.
+     * Locations that are now empty are included, and must be deleted from the database.
+     * @return
+     */
+    public List<Location> getChangedLocations() {
+        List<Location> locations = new ArrayList<>(changedSlots.cardinality());
+        for (int slot = changedSlots.nextSetBit(0); slot >= 0; slot = changedSlots.nextSetBit(slot + 1)) {
+            locations.add(locationOf(slot));
+        }
+        return locations;
+    }
+
+    /**
+     * Checks if the changed locations are the only differences from the database.
+     * This is false until markClean has been called, so the first write must be of the whole warehouse.
+     * @return
+     */
+    public boolean isTrackingChanges() {
+        return trackingChanges;
+    }
+
+    /**
+     * Record that the database now matches the warehouse, and start tracking changes from here.
+     */
+    public void markClean() {
+        changedSlots.clear();
+        trackingChanges = true;
+    }
+
+    /**
+     * Take the changes since the warehouse last matched the database, with the content of each changed location,
+     * and mark it clean, all in one step. Until markClean has been called the changes are the whole warehouse.
+     * If they cannot be written, give them back with restoreChanges so they are written next time.
+     * @return The changes.
+     */
+    public WarehouseChanges drainChanges() {
+        boolean all = !trackingChanges;
+        Map<Location, Batch> contents = new LinkedHashMap<>();
+        if (all) {
+            for (int slot = freeSlots.nextClearBit(0); slot < grid.size(); slot = freeSlots.nextClearBit(slot + 1)) {
+                contents.put(locationOf(slot), new Batch(grid.getPartCode(slot), grid.getQuantity(slot)));
+            }
+        } else {
+            for (int slot = changedSlots.nextSetBit(0); slot >= 0; slot = changedSlots.nextSetBit(slot + 1)) {
+                contents.put(locationOf(slot),
+                        grid.isEmpty(slot) ? null : new Batch(grid.getPartCode(slot), grid.getQuantity(slot)));
+            }
+        }
+        changedSlots.clear();
+        trackingChanges = true;
+        return new WarehouseChanges(all, contents);
+    }
+
+    /**
+     * Mark changes taken by drainChanges as not yet written, because writing them failed.
+     * @param changes The changes.
+     */
+    public void restoreChanges(WarehouseChanges changes) {
+        if (changes.all()) {
+            trackingChanges = false;
+        } else {
+            for (Location location : changes.contents().keySet()) {
+                markChanged(slotOf(location));
+            }
+        }
+    }
+
+    /**
+     * Record every later change to the grid in the given journal, which should already hold the warehouse
+     * as it is now. WarehouseJournal.attach takes a snapshot and then calls this.
+     * Call it from the thread that changes the warehouse, or before the warehouse is shared between threads.
+     * @param journal The journal, or null to stop journalling.
+     */
+    public void setJournal(WarehouseJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the number of rows in the grid.
+     * @return
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the grid.
+     * @return
+     */
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Turn on or off checking of the part indexes after every change to the warehouse.
+     * This is slow, so it is intended for use in tests.
+     * @param enabled Whether to check the indexes.
+     */
+    public static void setIndexChecking(boolean enabled) {
+        checkIndexes = enabled;
+    }
+
+    /**
+     * Compare the part indexes against a scan of the whole grid.
+     * @throws IllegalStateException If the indexes do not match the grid.
+     */
+    public void verifyIndexes() {
+        Map<Integer, SlotSet> expectedSlots = new HashMap<>();
+        Map<Integer, Integer> expectedTotals = new HashMap<>();
+        for (int slot = 0; slot < grid.size(); slot++) {
+            if (!grid.isEmpty(slot)) {
+                expectedSlots.computeIfAbsent(grid.getPartCode(slot), k -> new SlotSet()).add(slot);
+                expectedTotals.merge(grid.getPartCode(slot), grid.getQuantity(slot), Integer::sum);
+            }
+        }
+        if (!expectedSlots.equals(partSlots)) {
+            throw new IllegalStateException("Part locations index " + partSlots + " does not match the grid " + expectedSlots);
+        }
+        if (!expectedTotals.equals(partTotals)) {
+            throw new IllegalStateException("Part totals " + partTotals + " do not match the grid " + expectedTotals);
+        }
+        for (Map.Entry<Integer, Integer> reserved : partReserved.entrySet()) {
+            if (reserved.getValue() <= 0 || reserved.getValue() > getPartCount(reserved.getKey())) {
+                throw new IllegalStateException("Reserved " + reserved.getValue() + " of part " + reserved.getKey()
+                        + " but only " + getPartCount(reserved.getKey()) + " are in the grid");
+            }
+        }
+        BitSet expectedFree = new BitSet(numRows * numCols);
+        for (int slot = 0; slot < grid.size(); slot++) {
+            if (grid.isEmpty(slot)) {
+                expectedFree.set(slot);
+            }
+        }
+        if (!expectedFree.equals(freeSlots) || expectedFree.cardinality() != freeSlotCount) {
+            throw new IllegalStateException("Free slots " + freeSlots + " do not match the grid " + expectedFree);
+        }
+        if (freeSlotCount > 0 && freeSlots.nextSetBit(0) < firstFreeSlot) {
+            throw new IllegalStateException("Slot " + freeSlots.nextSetBit(0) + " is free but before " + firstFreeSlot);
+        }
+    }
+
+    /**
+     * Check the indexes if checking has been turned on.
+     */
+    void verifyIfChecking() {
+        if (checkIndexes) {
+            verifyIndexes();
+        }
+    }
+
+    /**
+     * Copy the quantity of each part code that is not held by a reservation.
+     * @return The available quantity of each part code in the grid.
+     */
+    Map<Integer, Integer> availableSnapshot() {
+        Map<Integer, Integer> available = new HashMap<>(partTotals);
+        for (Map.Entry<Integer, Integer> reserved : partReserved.entrySet()) {
+            available.merge(reserved.getKey(), -reserved.getValue(), Integer::sum);
+        }
+        return available;
+    }
+
+    /**
+     * Work out what the customer order is short of.
+     * @param customerOrder The customer order.
+     * @param available The available quantity of each part code.
+     * @return The shortfall.
+     */
+    private static OrderShortfall shortfallOf(CustomerOrder customerOrder, Map<Integer, Integer> available) {
+        Map<Integer, Integer> shortfall = Map.of();
+        for (Batch batch : customerOrder.getAllBatches().getBatches()) {
+            int missing = batch.getQuantity() - available.getOrDefault(batch.getPartCode(), 0);
+            if (missing > 0) {
+                if (shortfall.isEmpty()) {
+                    shortfall = new TreeMap<>();
+                }
+                shortfall.put(batch.getPartCode(), missing);
+            }
+        }
+        return new OrderShortfall(customerOrder, shortfall);
+    }
+
+    /**
+     * Get the quantity of each part the customer order wants, leaving out any lines for nothing.
+     * @param customerOrder The customer order.
+     * @return The quantity of each part code, in part code order.
+     */
+    private static Map<Integer, Integer> quantitiesOf(CustomerOrder customerOrder) {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (Batch batch : customerOrder.getAllBatches().getBatches()) {
+            if (batch.getQuantity() > 0) {
+                quantities.put(batch.getPartCode(), batch.getQuantity());
+            }
+        }
+        return quantities;
+    }
+
+    /**
+     * Total the quantity of each part on the orders that are not yet fulfilled.
+     * @param orders The orders.
+     * @return The quantity of each part code.
+     */
+    private static Map<Integer, Integer> incoming(Collection<? extends Order> orders) {
+        Map<Integer, Integer> quantities = new HashMap<>();
+        for (Order order : orders) {
+            if (!order.isFulfilled()) {
+                for (Batch batch : order.getAllBatches().getBatches()) {
+                    quantities.merge(batch.getPartCode(), batch.getQuantity(), Integer::sum);
+                }
+            }
+        }
+        return quantities;
+    }
+
+    /**
+     * Give back reserved stock of a part, forgetting the part once none is reserved.
+     * @param partCode The part code.
+     * @param quantity The quantity to give back.
+     */
+    private void unreserve(int partCode, int quantity) {
+        partReserved.computeIfPresent(partCode, (k, reserved) -> reserved == quantity ? null : reserved - quantity);
+    }
+
+    /**
+     * Pick a quantity of the part from its locations in grid order, adding them to the pick list.
+     * If there is not enough of the part, what there is gets picked.
+     * @param partCode The part code.
+     * @param quantity The quantity to pick.
+     * @param pickListItems The pick list to add to.
+     */
+    private void pickFromSlots(int partCode, int quantity, List<PickListItem> pickListItems) {
+        SlotSet partLocations = partSlots.get(partCode);
+        if (partLocations == null) {
+            return;
+        }
+        int quantityNeeded = quantity;
+        for (int slot : partLocations.toArray()) {
+            if (quantityNeeded <= 0) {
+                break;
+            }
+            int quantityAvailable = grid.getQuantity(slot);
+
+            if (quantityAvailable > 0) {
+                int quantityToPick = Math.min(quantityNeeded, quantityAvailable);
+                pickListItems.add(new PickListItem(locationOf(slot), new Batch(partCode, quantityToPick)));
+                quantityNeeded -= quantityToPick;
+                takeFromSlot(slot, partCode, quantityToPick);
+            }
+        }
+    }
+
+    /**
+     * Take some of the part out of an occupied slot, emptying the slot if none are left.
+     * @param slot The slot number.
+     * @param partCode The part code in the slot.
+     * @param quantity The quantity to take, which must not be more than is in the slot.
+     */
+    private void takeFromSlot(int slot, int partCode, int quantity) {
+        partTotals.merge(partCode, -quantity, Integer::sum);
+        markChanged(slot);
+        if (quantity == grid.getQuantity(slot)) {
+            grid.clear(slot);
+            removeFromIndex(slot, partCode, 0);
+            // Journalled before the slot is released, so that it cannot be recorded after a later store in it.
+            journalSlot(WarehouseJournal.PICK, slot);
+            releaseSlot(slot);
+        } else {
+            grid.changeQuantity(slot, -quantity);
+            journalSlot(WarehouseJournal.PICK, slot);
+        }
+    }
+
+    /**
+     * Fill this empty warehouse from a saved grid, without creating a Location for each slot or recording the
+     * slots as changed. The totals are added up afterwards, one part at a time, instead of slot by slot.
+     * @param slots The part code and then the quantity of every slot in order, with a quantity of 0 for an empty slot.
+     */
+    void loadGrid(IntBuffer slots) {
+        SlotSet lastSlots = null;
+        int lastPartCode = 0;
+        for (int slot = 0; slot < grid.size(); slot++) {
+            int quantity = slots.get(2 * slot + 1);
+            if (quantity != 0) {
+                int partCode = slots.get(2 * slot);
+                grid.put(slot, partCode, quantity);
+                freeSlots.clear(slot);
+                // Neighbouring slots often hold the same part, so this saves looking it up again.
+                if (lastSlots == null || partCode != lastPartCode) {
+                    lastSlots = partSlots.computeIfAbsent(partCode, k -> new SlotSet());
+                    lastPartCode = partCode;
+                }
+                lastSlots.add(slot);
+            }
+        }
+        freeSlotCount = freeSlots.cardinality();
+        firstFreeSlot = freeSlotCount == 0 ? grid.size() : freeSlots.nextSetBit(0);
+        for (Map.Entry<Integer, SlotSet> part : partSlots.entrySet()) {
+            int total = 0;
+            for (int index = 0; index < part.getValue().size(); index++) {
+                total += grid.getQuantity(part.getValue().get(index));
+            }
+            partTotals.put(part.getKey(), total);
+        }
+        verifyIfChecking();
+    }
+
+    /**
+     * Record what the given slot now holds in the journal, if there is one.
+     * @param kind The kind of change, one of WarehouseJournal.ADD, STORE or PICK.
+     * @param slot The slot number.
+     */
+    private void journalSlot(byte kind, int slot) {
+        WarehouseJournal current = journal;
+        if (current != null) {
+            if (grid.isEmpty(slot)) {
+                current.append(kind, slot, 0, 0);
+            } else {
+                current.append(kind, slot, grid.getPartCode(slot), grid.getQuantity(slot));
+            }
+        }
+    }
+
+    /**
+     * Record that the given slot now holds a quantity of the part code.
+     * @param slot The slot number.
+     * @param partCode The part code.
+     * @param quantity The quantity in the slot.
+     */
+    private void addToIndex(int slot, int partCode, int quantity) {
+        partSlots.computeIfAbsent(partCode, k -> new SlotSet()).add(slot);
+        partTotals.merge(partCode, quantity, Integer::sum);
+    }
+
+    /**
+     * Record that the given slot no longer holds the part code.
+     * @param slot The slot number.
+     * @param partCode The part code.
+     * @param quantity The quantity that was in the slot.
+     */
+    private void removeFromIndex(int slot, int partCode, int quantity) {
+        SlotSet slots = partSlots.get(partCode);
+        slots.remove(slot);
+        if (slots.isEmpty()) {
+            partSlots.remove(partCode);
+        }
+        // Drop the total altogether once none are left so that it matches a scan of the grid.
+        if (partTotals.merge(partCode, -quantity, Integer::sum) == 0 && !partSlots.containsKey(partCode)) {
+            partTotals.remove(partCode);
+        }
+    }
+
+    /**
+     * Take the first empty slot in grid order, so that nothing else is stored in it.
+     * @return The slot number, or -1 if there are no empty slots.
+     */
+    int claimFreeSlot() {
+        if (freeSlotCount == 0) {
+            return -1;
+        }
+        firstFreeSlot = freeSlots.nextSetBit(firstFreeSlot);
+        freeSlots.clear(firstFreeSlot);
+        freeSlotCount--;
+        return firstFreeSlot;
+    }
+
+    /**
+     * Record that the given empty slot is now occupied.
+     * @param slot The slot number.
+     */
+    void claimSlot(int slot) {
+        freeSlots.clear(slot);
+        freeSlotCount--;
+    }
+
+    /**
+     * Record that the given slot has been emptied.
+     * @param slot The slot number.
+     */
+    void releaseSlot(int slot) {
+        freeSlots.set(slot);
+        freeSlotCount++;
+        firstFreeSlot = Math.min(firstFreeSlot, slot);
+    }
+
+    /**
+     * Record that the given slot differs from the database.
+     * @param slot The slot number.
+     */
+    void markChanged(int slot) {
+        changedSlots.set(slot);
+    }
+
+    /**
+     * Convert a location into its slot number.
+     * @param location The location.
+     * @return The slot number.
+     */
+    private int slotOf(Location location) {
+        return location.row() * numCols + location.col();
+    }
+
+    /**
+     * Convert a slot number into its location.
+     * @param slot The slot number.
+     * @return The location.
+     */
+    private Location locationOf(int slot) {
+        return new Location(slot / numCols, slot % numCols);
+    }
+
+    /**
+     * The quantity of a part wanted by one order in a wave, and the pick list it goes on.
+     * @param pickList The pick list of the order.
+     * @param quantity The quantity wanted.
+     */
+    private record WaveLine(List<PickListItem> pickList, int quantity) {
+    }
+
+    /**
+     * A read-only list of locations backed by an array of slot numbers.
+     * Each Location is only created when it is asked for.
+     */
+    private class SlotLocations extends AbstractList<Location> {
+        // The slots in the list.
+        private final int[] slots;
+
+        /**
+         * Create a list of the locations of the given slots.
+         * @param slots The slot numbers.
+         */
+        SlotLocations(int[] slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public Location get(int index) {
+            return locationOf(slots[index]);
+        }
+
+        @Override
+        public int size() {
+            return slots.length;
+        }
+    }
 }
@@ -0,0 +1,11 @@
+import java.util.Map;
+
+/**
+ * The changes made to the warehouse since it last matched the database, taken from it in one step by
+ * Warehouse.drainChanges, so that none made meanwhile on another thread can be lost.
+ * @author Nathan Thompson - njt38
+ * @param all Whether the changes are the whole warehouse, replacing everything in the warehouse table.
+ * @param contents The latest content of each changed location, null where it is now empty. The batches are copies.
+ */
+public record WarehouseChanges(boolean all, Map<Location, Batch> contents) {
+}
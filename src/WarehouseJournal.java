@@ -0,0 +1,476 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the changes made to a warehouse, with full snapshots, so that the grid can be
+ * rebuilt on startup from the last snapshot and the changes since, without reading the warehouse table.
+ * Each change is recorded as a short binary event giving what one slot holds afterwards, so replaying an event
+ * that the snapshot already includes does no harm. Events are gathered in memory, then written and forced to
+ * disk together, either when a thread calls sync or every few milliseconds, so one fsync covers all the picks
+ * made in the meantime (group commit).
+ * The journal keeps a directory to itself, holding the snapshot and numbered journal files with the events
+ * since it. Each write to a journal file is a frame with its length and checksum, so a frame torn by a crash
+ * is recognised and ignored, along with anything after it.
+ * If a write fails, the journal file may end with a torn frame that hides everything written after it, so sync
+ * keeps reporting the failure until the next snapshot, which starts a new journal file and holds every change
+ * that was lost.
+ * Main does not use the journal: it loads the warehouse from the database, which stays the system of record.
+ * The journal is for programs that keep the warehouse only in memory; with none attached, a change only checks
+ * a field.
+ * @author Nathan Thompson - njt38
+ */
+public class WarehouseJournal implements AutoCloseable {
+    /**
+     * The kinds of change, recorded with each event for anyone reading the journal.
+     * Replaying the journal does not need them, as every event gives the whole content of its slot.
+     */
+    public static final byte ADD = 1, STORE = 2, PICK = 3;
+    // The size of an event: its kind, slot, part code and quantity.
+    private static final int EVENT_BYTES = 13;
+    // The size of the length and checksum at the start of each frame.
+    private static final int FRAME_HEADER_BYTES = 8;
+    // The name of the snapshot file, which is a WarehouseSnapshot stamped with the generation it starts.
+    private static final String SNAPSHOT = "journal.snapshot";
+    // The start of the name of each journal file, which ends with its generation.
+    private static final String JOURNAL_PREFIX = "warehouse.journal.";
+    // How long events wait in memory before they are written, by default.
+    private static final long DEFAULT_COMMIT_NANOS = 10_000_000L;
+    // How big the journal file grows before a snapshot is due, by default.
+    private static final long DEFAULT_SNAPSHOT_BYTES = 4L << 20;
+
+    // The directory holding the snapshot and journal files.
+    private final Path directory;
+    // How big the journal file grows before a snapshot is due.
+    private final long snapshotBytes;
+    // Writes the events every few milliseconds.
+    private final ScheduledExecutorService committer;
+    // The events appended but not yet written, guarded by this.
+    private ByteBuffer pending = ByteBuffer.allocate(64 * EVENT_BYTES);
+    // The number of events appended, and the number known to be on disk, guarded by this.
+    private long appended, durable;
+    // Whether a thread is writing events to the journal file, guarded by this.
+    private boolean writing;
+    // Why writing to the journal file failed, or null if it has not since the last snapshot, guarded by this.
+    private IOException failure;
+    // The journal file being appended to, or null until a warehouse is attached, guarded by this.
+    private FileChannel channel;
+    // The generation of the journal file, counting up from the first snapshot, guarded by this.
+    private long generation;
+    // The bytes written to the journal file, guarded by this.
+    private long journalBytes;
+    // The warehouse being journalled, or null if none is attached.
+    private Warehouse warehouse;
+
+    /**
+     * Open the journal kept in the given directory, creating the directory if it is missing.
+     * Nothing is recorded until a warehouse is attached.
+     * @param directory The directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    public WarehouseJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_COMMIT_NANOS, DEFAULT_SNAPSHOT_BYTES);
+    }
+
+    /**
+     * Open the journal kept in the given directory, creating the directory if it is missing.
+     * Nothing is recorded until a warehouse is attached.
+     * @param directory The directory.
+     * @param commitNanos How long events may wait in memory before they are written, or 0 to only write them
+     *                    when sync is called.
+     * @param snapshotBytes How big the journal file grows before snapshotIfDue takes a snapshot.
+     * @throws IOException If the directory cannot be created.
+     */
+    public WarehouseJournal(Path directory, long commitNanos, long snapshotBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshotBytes = snapshotBytes;
+        if (commitNanos > 0) {
+            committer = Executors.newSingleThreadScheduledExecutor(action -> {
+                Thread thread = new Thread(action, "warehouse-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            committer.scheduleWithFixedDelay(this::commitQuietly, commitNanos, commitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            committer = null;
+        }
+    }
+
+    /**
+     * Rebuild the saved warehouse from the snapshot and the journal files after it.
+     * Replaying stops at the first frame that is incomplete or fails its checksum, which can only be the last
+     * one written before a crash.
+     * @param empty An empty warehouse of the same size as the one saved, to rebuild it in.
+     * @return false if nothing has been saved, leaving the warehouse empty.
+     * @throws IOException If the snapshot cannot be read, is damaged or is of a warehouse of another size.
+     */
+    public boolean recover(Warehouse empty) throws IOException {
+        Path snapshotFile = directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshotFile)) {
+            return false;
+        }
+        int[] slots = new int[2 * empty.getNumRows() * empty.getNumCols()];
+        long firstGeneration = WarehouseSnapshot.readGrid(snapshotFile, empty.getNumRows(), empty.getNumCols(), slots);
+        for (Path journalFile : journalFiles(firstGeneration)) {
+            if (!replay(journalFile, slots)) {
+                break;
+            }
+        }
+        empty.loadGrid(IntBuffer.wrap(slots));
+        return true;
+    }
+
+    /**
+     * Start journalling the warehouse: take a snapshot of it as it is now, and then record every change to it.
+     * @param warehouse The warehouse.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void attach(Warehouse warehouse) throws IOException {
+        synchronized (this) {
+            if (this.warehouse != null) {
+                throw new IllegalStateException("A warehouse is already attached to the journal.");
+            }
+            this.warehouse = warehouse;
+            generation = latestGeneration();
+        }
+        warehouse.setJournal(this);
+        snapshot();
+    }
+
+    /**
+     * Record what a slot holds after a change. The event is only in memory until it is next written, so
+     * call sync when a change must survive a crash.
+     * @param kind The kind of change.
+     * @param slot The slot number.
+     * @param partCode The part code in the slot.
+     * @param quantity The quantity in the slot, or 0 if it is now empty.
+     */
+    public synchronized void append(byte kind, int slot, int partCode, int quantity) {
+        if (pending.remaining() < EVENT_BYTES) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        pending.put(kind).putInt(slot).putInt(partCode).putInt(quantity);
+        appended++;
+    }
+
+    /**
+     * Wait until every event appended so far is on disk.
+     * If another thread is already writing, this waits for it, and then writes everything appended meanwhile
+     * by any thread in one frame and one fsync.
+     * @throws IOException If the events cannot be written, now or by an earlier commit.
+     */
+    public void sync() throws IOException {
+        ByteBuffer events;
+        long target;
+        FileChannel journalFile;
+        synchronized (this) {
+            target = appended;
+            while (writing && durable < target) {
+                waitForWriter();
+            }
+            throwIfFailed();
+            if (durable >= target || channel == null) {
+                return;
+            }
+            writing = true;
+            events = takePending();
+            target = appended;
+            journalFile = channel;
+        }
+        IOException thrown = null;
+        try {
+            write(journalFile, events);
+        } catch (IOException e) {
+            thrown = e;
+        }
+        synchronized (this) {
+            writing = false;
+            if (thrown == null) {
+                durable = target;
+                journalBytes += events.limit();
+            } else {
+                failure = thrown;
+            }
+            notifyAll();
+        }
+        if (thrown != null) {
+            throw thrown;
+        }
+    }
+
+    /**
+     * Take a snapshot if the journal file has grown past its limit since the last one, or if writing it has
+     * failed since then.
+     * With a plain Warehouse, call this between operations from the thread that changes it, as the snapshot
+     * reads the whole grid.
+     * @return true if a snapshot was taken.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public boolean snapshotIfDue() throws IOException {
+        synchronized (this) {
+            if (warehouse == null || failure == null && journalBytes + pending.position() < snapshotBytes) {
+                return false;
+            }
+        }
+        snapshot();
+        return true;
+    }
+
+    /**
+     * Write a full snapshot of the attached warehouse, and delete the journal files it replaces.
+     * Appending moves on to a new journal file first, and the grid is read after that, so every change the
+     * snapshot misses is in the new file. Changes made while the grid is read may be in both, which is harmless.
+     * The snapshot is written by WarehouseSnapshot, which renames it over the old one, so a crash leaves one or the other.
+     * Once it is written, an earlier failure to write the journal is cleared, as the snapshot holds the changes lost.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void snapshot() throws IOException {
+        Warehouse current;
+        long snapshotGeneration;
+        IOException failed;
+        synchronized (this) {
+            if (warehouse == null) {
+                throw new IllegalStateException("No warehouse is attached to the journal.");
+            }
+            current = warehouse;
+            while (writing) {
+                waitForWriter();
+            }
+            failed = failure;
+            if (channel != null) {
+                if (failed == null) {
+                    // Until the new snapshot is in place, recovery starts from the old one and needs these events.
+                    try {
+                        write(channel, takePending());
+                    } catch (IOException e) {
+                        failure = e;
+                        throw e;
+                    }
+                }
+                channel.close();
+            }
+            // Before the first snapshot, or after a failed write, the events have nowhere to go, but it will include them.
+            pending.clear();
+            durable = appended;
+            generation++;
+            journalBytes = 0;
+            channel = FileChannel.open(journalFile(generation),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            snapshotGeneration = generation;
+        }
+
+        WarehouseSnapshot.write(current, directory.resolve(SNAPSHOT), snapshotGeneration);
+        for (Path replaced : journalFiles(0)) {
+            if (generationOf(replaced) < snapshotGeneration) {
+                Files.deleteIfExists(replaced);
+            }
+        }
+        synchronized (this) {
+            // A failure since the new journal file was started is kept.
+            if (failure == failed) {
+                failure = null;
+            }
+        }
+    }
+
+    /**
+     * Write the events still in memory, stop journalling and close the journal file.
+     * @throws IOException If the events cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (committer != null) {
+            committer.shutdown();
+        }
+        Warehouse current;
+        synchronized (this) {
+            current = warehouse;
+        }
+        if (current != null) {
+            current.setJournal(null);
+        }
+        try {
+            sync();
+        } finally {
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                warehouse = null;
+            }
+        }
+    }
+
+    /**
+     * Write the events in memory for the committer thread, leaving any failure to be reported by the next sync.
+     */
+    private void commitQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // Kept in failure for the next caller of sync.
+        }
+    }
+
+    /**
+     * Take the events in memory as a frame ready to write, with its length and checksum.
+     * @return The frame, which is empty if there are no events.
+     */
+    private ByteBuffer takePending() {
+        if (pending.position() == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + pending.position());
+        frame.putInt(pending.position()).putInt((int) checksum(pending.array(), 0, pending.position()));
+        frame.put(pending.array(), 0, pending.position());
+        frame.flip();
+        pending.clear();
+        return frame;
+    }
+
+    /**
+     * Append a frame to a journal file and force it to disk.
+     * @param journalFile The journal file.
+     * @param frame The frame, which is not written if it is empty.
+     * @throws IOException If the frame cannot be written.
+     */
+    private static void write(FileChannel journalFile, ByteBuffer frame) throws IOException {
+        if (!frame.hasRemaining()) {
+            return;
+        }
+        while (frame.hasRemaining()) {
+            journalFile.write(frame);
+        }
+        journalFile.force(false);
+    }
+
+    /**
+     * Apply the events in a journal file to the content of the slots.
+     * @param journalFile The journal file.
+     * @param slots The part code and then the quantity of every slot in order.
+     * @return false if the file ends with a torn or damaged frame, so nothing after it can be trusted.
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean replay(Path journalFile, int[] slots) throws IOException {
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+        while (journal.remaining() >= FRAME_HEADER_BYTES) {
+            int length = journal.getInt();
+            int crc = journal.getInt();
+            if (length <= 0 || length % EVENT_BYTES != 0 || length > journal.remaining()
+                    || (int) checksum(journal.array(), journal.position(), length) != crc) {
+                return false;
+            }
+            for (int end = journal.position() + length; journal.position() < end; ) {
+                journal.get();
+                int slot = journal.getInt();
+                int partCode = journal.getInt();
+                int quantity = journal.getInt();
+                if (slot < 0 || 2 * slot >= slots.length) {
+                    throw new IOException(journalFile + " has an event for slot " + slot + " outside the grid.");
+                }
+                slots[2 * slot] = partCode;
+                slots[2 * slot + 1] = quantity;
+            }
+        }
+        return !journal.hasRemaining();
+    }
+
+    /**
+     * List the journal files from the given generation on, oldest first.
+     * @param firstGeneration The first generation wanted.
+     * @return The journal files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private List<Path> journalFiles(long firstGeneration) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(file -> file.getFileName().toString().startsWith(JOURNAL_PREFIX))
+                    .filter(file -> generationOf(file) >= firstGeneration)
+                    .sorted((first, second) -> Long.compare(generationOf(first), generationOf(second)))
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * Find the newest generation of journal file in the directory.
+     * @return The generation, or 0 if there are none.
+     * @throws IOException If the directory cannot be read.
+     */
+    private long latestGeneration() throws IOException {
+        List<Path> files = journalFiles(0);
+        return files.isEmpty() ? 0 : generationOf(files.get(files.size() - 1));
+    }
+
+    /**
+     * Get the path of the journal file of a generation.
+     * @param generation The generation.
+     * @return The path.
+     */
+    private Path journalFile(long generation) {
+        return directory.resolve(JOURNAL_PREFIX + generation);
+    }
+
+    /**
+     * Get the generation of a journal file from its name.
+     * @param journalFile The journal file.
+     * @return The generation, or -1 if the name does not end with one.
+     */
+    private static long generationOf(Path journalFile) {
+        try {
+            return Long.parseLong(journalFile.getFileName().toString().substring(JOURNAL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Calculate the checksum of part of an array.
+     * @param bytes The array.
+     * @param offset Where the part starts.
+     * @param length The length of the part.
+     * @return The CRC-32 of the part.
+     */
+    private static long checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Wait for the thread writing events to finish. Must be called holding the lock on this.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    private void waitForWriter() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the journal to be written.");
+        }
+    }
+
+    /**
+     * Report the last failure to write the journal. Must be called holding the lock on this.
+     * @throws IOException The failure, if there was one.
+     */
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("The warehouse journal could not be written.", failure);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-layout binary copy of the whole grid, so that a warehouse can be loaded on startup by mapping one file
+ * into memory instead of parsing every row of the warehouse table.
+ * The file is a header of the magic number, rows, columns, a checksum of the grid and a stamp identifying the
+ * state of the database it was taken from, followed by a part code and quantity for every slot in order, as
+ * little-endian ints. The database stays the system of record: a snapshot is only used if its checksum matches
+ * and it carries the stamp the database has now. WarehouseJournal keeps its snapshots in the same layout,
+ * stamped with the journal generation they start.
+ * @author Nathan Thompson - njt38
+ */
+public class WarehouseSnapshot {
+    // Identifies a snapshot file, and the version of its layout.
+    private static final int MAGIC = 0x57484731;
+    // The size of the header: magic, rows, columns, checksum and stamp.
+    private static final int HEADER_BYTES = 24;
+    // The size of each slot: its part code and quantity.
+    private static final int SLOT_BYTES = 8;
+
+    /**
+     * Write a snapshot of the warehouse, replacing any snapshot already in the file.
+     * It is written to a temporary file and renamed into place, so a crash leaves the old snapshot or the new one.
+     * @param warehouse The warehouse.
+     * @param file The snapshot file.
+     * @param stamp Identifies the state of the database the warehouse matches.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void write(Warehouse warehouse, Path file, long stamp) throws IOException {
+        int numRows = warehouse.getNumRows();
+        int numCols = warehouse.getNumCols();
+        long size = HEADER_BYTES + (long) numRows * numCols * SLOT_BYTES;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer slots = slotsOf(mapped);
+            for (Location location : warehouse.getPartLocations()) {
+                Batch batch = warehouse.getBatchAt(location);
+                if (batch == null) {
+                    // Under a ConcurrentWarehouse the slot may have been emptied since the locations were listed.
+                    continue;
+                }
+                int slot = location.row() * numCols + location.col();
+                slots.put(2 * slot, batch.getPartCode());
+                slots.put(2 * slot + 1, batch.getQuantity());
+            }
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, numRows);
+            mapped.putInt(8, numCols);
+            mapped.putInt(12, checksum(mapped));
+            mapped.putLong(16, stamp);
+            mapped.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the warehouse from a snapshot.
+     * @param file The snapshot file.
+     * @param stamp Identifies the state of the database now, which the snapshot must have been taken from.
+     * @param storage Empty storage for the grid, with a slot for every location in the snapshot.
+     * @return The warehouse.
+     * @throws NoSuchFileException If there is no snapshot.
+     * @throws IOException If the snapshot cannot be read, is damaged, or was taken from a different state of
+     *                     the database.
+     */
+    public static Warehouse read(Path file, long stamp, GridStorage storage) throws IOException {
+        MappedByteBuffer mapped = map(file);
+        if (mapped.getLong(16) != stamp) {
+            throw new IOException(file + " was taken before the database last changed.");
+        }
+        Warehouse warehouse = new Warehouse(mapped.getInt(4), mapped.getInt(8), storage);
+        warehouse.loadGrid(slotsOf(mapped));
+        return warehouse;
+    }
+
+    /**
+     * Copy the grid out of a snapshot, for a caller that changes it before loading it into a warehouse.
+     * @param file The snapshot file.
+     * @param numRows The number of rows the grid must have.
+     * @param numCols The number of columns the grid must have.
+     * @param slots Where to copy the part code and then the quantity of every slot in order.
+     * @return The stamp the snapshot was written with.
+     * @throws NoSuchFileException If there is no snapshot.
+     * @throws IOException If the snapshot cannot be read, is damaged, or is of a grid of another size.
+     */
+    static long readGrid(Path file, int numRows, int numCols, int[] slots) throws IOException {
+        MappedByteBuffer mapped = map(file);
+        if (mapped.getInt(4) != numRows || mapped.getInt(8) != numCols || slots.length != 2 * numRows * numCols) {
+            throw new IOException(String.format("%s is of a %dx%d grid but the warehouse is %dx%d.",
+                    file, mapped.getInt(4), mapped.getInt(8), numRows, numCols));
+        }
+        slotsOf(mapped).get(slots);
+        return mapped.getLong(16);
+    }
+
+    /**
+     * Map a snapshot into memory, checking that it is whole.
+     * The mapping stays valid after the file is closed.
+     * @param file The snapshot file.
+     * @return The whole snapshot, little-endian.
+     * @throws NoSuchFileException If there is no snapshot.
+     * @throws IOException If the snapshot cannot be read or is damaged.
+     */
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is too short to be a warehouse snapshot.");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a warehouse snapshot.");
+            }
+            int numRows = mapped.getInt(4);
+            int numCols = mapped.getInt(8);
+            if (numRows < 0 || numCols < 0 || channel.size() != HEADER_BYTES + (long) numRows * numCols * SLOT_BYTES) {
+                throw new IOException(file + " is the wrong size for its grid.");
+            }
+            if (mapped.getInt(12) != checksum(mapped)) {
+                throw new IOException(file + " is damaged.");
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Get the slots of a mapped snapshot.
+     * @param mapped The whole snapshot.
+     * @return The part code and then the quantity of every slot in order.
+     */
+    private static IntBuffer slotsOf(ByteBuffer mapped) {
+        return mapped.duplicate().position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Calculate the checksum of the grid in a snapshot.
+     * @param mapped The whole snapshot.
+     * @return The CRC-32 of everything after the header.
+     */
+    private static int checksum(ByteBuffer mapped) {
+        CRC32 crc = new CRC32();
+        crc.update(mapped.duplicate().position(HEADER_BYTES));
+        return (int) crc.getValue();
+    }
+}
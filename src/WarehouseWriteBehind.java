@@ -0,0 +1,287 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Writes changes to the warehouse, and the orders and deliveries they fulfil, to the database from a background
+ * thread, so that picking and storing only wait for the warehouse in memory to change.
+ * Updates are coalesced while they wait: a location changed by several updates is written once with its latest
+ * content, and everything waiting is written together in one transaction on a connection of its own.
+ * At most MAX_BACKLOG updates wait at once; after that, queueing waits for the writer to catch up.
+ * A transaction that fails is rolled back and its updates are tried again, after any queued since.
+ * An order or delivery that matches no row can never be marked, and the stock changes waiting with it cannot be
+ * written without it, so the writer rolls back and stops, and flush and close report why.
+ * @author Nathan Thompson - njt38
+ */
+public class WarehouseWriteBehind implements AutoCloseable {
+    // The most updates that can wait to be written before queueing waits.
+    private static final int MAX_BACKLOG = 1024;
+    // How long to wait before trying a failed transaction again.
+    private static final long RETRY_MILLIS = 1000;
+
+    // The writer's connection to the database.
+    private final Connection connection;
+    // The statements prepared on the writer's connection, used only by the writer.
+    private final StatementCache statements;
+    // The thread writing to the database.
+    private final Thread writer;
+    // The latest content of each location waiting to be written, null if it is now empty, guarded by this.
+    private Map<Location, Batch> locations = new HashMap<>();
+    // Whether the whole warehouse table is to be replaced by the locations waiting, guarded by this.
+    private boolean replaceAll = false;
+    // The orders and deliveries waiting to be marked as fulfilled, guarded by this.
+    private Set<Fulfilment> fulfilments = new LinkedHashSet<>();
+    // The number of updates waiting, guarded by this.
+    private int backlog = 0;
+    // The number of updates queued and the number written so far, guarded by this.
+    private long queued = 0, written = 0;
+    // Why the last transaction failed, or null if it succeeded, guarded by this.
+    private SQLException failure;
+    // Whether the writer has been told to stop, guarded by this.
+    private boolean closed = false;
+    // Whether the writer has stopped for good, as the updates waiting can never be written, guarded by this.
+    private boolean stopped = false;
+
+    /**
+     * Start writing to the database through the given connection, which is used by nothing else.
+     * @param connection The connection.
+     * @throws SQLException If the connection cannot be set up for transactions.
+     */
+    public WarehouseWriteBehind(Connection connection) throws SQLException {
+        this.connection = connection;
+        statements = new StatementCache(connection);
+        connection.setAutoCommit(false);
+        writer = new Thread(this::run, "warehouse-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue the changes made to the warehouse since it was last written, and mark an order or delivery as
+     * fulfilled along with them. The changes are taken from the warehouse now, on the caller's thread, in the
+     * same step as it is marked clean, so a change made meanwhile on another thread is left for the next update.
+     * If the backlog is full this waits until the writer has caught up.
+     * @param theWarehouse The warehouse.
+     * @param fulfilment The order or delivery the changes fulfil.
+     * @throws IllegalStateException If the queue has been closed or has stopped, in which case the changes are
+     *                               left in the warehouse as they were.
+     */
+    public void queue(Warehouse theWarehouse, Fulfilment fulfilment) {
+        WarehouseChanges changes = theWarehouse.drainChanges();
+
+        IllegalStateException rejected = null;
+        boolean interrupted = false;
+        synchronized (this) {
+            while (backlog >= MAX_BACKLOG && !closed && !stopped) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Queue it anyway rather than lose it, and leave the interrupt for the caller.
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (closed) {
+                rejected = new IllegalStateException("The write-behind queue has been closed.");
+            } else if (stopped) {
+                rejected = new IllegalStateException("The write-behind queue has stopped: " + failure.getMessage());
+            } else {
+                if (changes.all()) {
+                    locations.clear();
+                    replaceAll = true;
+                }
+                locations.putAll(changes.contents());
+                fulfilments.add(fulfilment);
+                backlog++;
+                queued++;
+                notifyAll();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (rejected != null) {
+            // Give the changes back to the warehouse, outside the lock on this, so they are written some other way.
+            theWarehouse.restoreChanges(changes);
+            throw rejected;
+        }
+    }
+
+    /**
+     * Wait until every update queued so far has been written to the database.
+     * @throws SQLException If the last attempt to write them failed, or the writer has stopped.
+     */
+    public synchronized void flush() throws SQLException {
+        long target = queued;
+        while (written < target && failure == null && writer.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for the warehouse to be written.", e);
+            }
+        }
+        if (written < target) {
+            throw failure != null ? failure : new SQLException("The write-behind queue has stopped.");
+        }
+    }
+
+    /**
+     * Write everything still queued, then stop the writer and close its connection.
+     * @throws SQLException If the updates still queued could not be written.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            statements.close();
+        } finally {
+            connection.close();
+        }
+        synchronized (this) {
+            if (written < queued) {
+                throw failure != null ? failure
+                        : new SQLException("The write-behind queue stopped before writing everything.");
+            }
+        }
+    }
+
+    /**
+     * Write the updates as they are queued, until closed.
+     */
+    private void run() {
+        while (true) {
+            Map<Location, Batch> takenLocations;
+            boolean takenReplaceAll;
+            Set<Fulfilment> takenFulfilments;
+            long target;
+            int count;
+            synchronized (this) {
+                while (backlog == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (backlog == 0) {
+                    return;
+                }
+                takenLocations = locations;
+                takenReplaceAll = replaceAll;
+                takenFulfilments = fulfilments;
+                locations = new HashMap<>();
+                replaceAll = false;
+                fulfilments = new LinkedHashSet<>();
+                target = queued;
+                count = backlog;
+            }
+            try {
+                List<Fulfilment> missing = write(takenLocations, takenReplaceAll, takenFulfilments);
+                if (!missing.isEmpty()) {
+                    // Trying again would not help, and writing the rest would take stock for orders left open.
+                    SQLException e = new SQLException("Failed to update the fulfilled column of " + missing
+                            + ", so nothing more will be written.");
+                    System.err.println(e.getMessage());
+                    synchronized (this) {
+                        putBack(takenLocations, takenReplaceAll, takenFulfilments);
+                        failure = e;
+                        stopped = true;
+                        notifyAll();
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    written = target;
+                    backlog -= count;
+                    failure = null;
+                    notifyAll();
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to write the warehouse, will try again: " + e.getMessage());
+                synchronized (this) {
+                    putBack(takenLocations, takenReplaceAll, takenFulfilments);
+                    failure = e;
+                    notifyAll();
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        wait(RETRY_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Put updates that were not written back in the queue, behind any queued since, which are newer.
+     * Must be called holding the lock on this.
+     * @param takenLocations The latest content of each changed location that was taken.
+     * @param takenReplaceAll Whether the locations taken were the whole warehouse.
+     * @param takenFulfilments The orders and deliveries that were taken.
+     */
+    private void putBack(Map<Location, Batch> takenLocations, boolean takenReplaceAll,
+                         Set<Fulfilment> takenFulfilments) {
+        if (!replaceAll) {
+            takenLocations.forEach(locations::putIfAbsent);
+            replaceAll = takenReplaceAll;
+        }
+        takenFulfilments.addAll(fulfilments);
+        fulfilments = takenFulfilments;
+    }
+
+    /**
+     * Write the updates in one transaction, which is rolled back if any of it fails, including an order or
+     * delivery that matches no row.
+     * @param changes The latest content of each changed location, null if it is now empty.
+     * @param all Whether the changes are the whole warehouse, replacing everything in the table.
+     * @param done The orders and deliveries to mark as fulfilled.
+     * @return The orders and deliveries that matched no row, in which case nothing was written.
+     * @throws SQLException If the updates cannot be written.
+     */
+    private List<Fulfilment> write(Map<Location, Batch> changes, boolean all, Set<Fulfilment> done)
+            throws SQLException {
+        try {
+            if (all) {
+                statements.prepare("delete from warehouse").executeUpdate();
+            } else if (!changes.isEmpty()) {
+                PreparedStatement delete = statements.prepare("delete from warehouse where location = ?");
+                for (Location location : changes.keySet()) {
+                    delete.setString(1, location.row() + "," + location.col());
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+            PreparedStatement insert = statements.prepare("insert into warehouse values (?, ?, ?)");
+            for (Map.Entry<Location, Batch> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    insert.setString(1, change.getKey().row() + "," + change.getKey().col());
+                    insert.setInt(2, change.getValue().getPartCode());
+                    insert.setInt(3, change.getValue().getQuantity());
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+            List<Fulfilment> missing = Fulfilment.markAll(statements, done);
+            if (missing.isEmpty()) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+            return missing;
+        } catch (Throwable e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+}
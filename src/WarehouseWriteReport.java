@@ -0,0 +1,19 @@
+/**
+ * A record of one write of the warehouse table to the database.
+ * A location that is rewritten counts once as deleted and once as written.
+ * @author Nathan Thompson - njt38
+ * @param rowsWritten The number of rows inserted, and orders, deliveries or purchase orders marked as fulfilled.
+ * @param rowsDeleted The number of rows deleted from the warehouse table.
+ * @param elapsedNanos How long the write took, including the commit.
+ */
+public record WarehouseWriteReport(int rowsWritten, int rowsDeleted, long elapsedNanos) {
+    /**
+     * Returns a formatted string of the write.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("%d rows written and %d deleted in %.2f ms", rowsWritten, rowsDeleted,
+                elapsedNanos / 1_000_000.0);
+    }
+}
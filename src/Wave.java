@@ -0,0 +1,22 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A record representing the pick lists for a wave of customer orders picked together.
+ * @author Nathan Thompson - njt38
+ * @param pickLists The pick list of each picked order, by order number, in the order the orders were given.
+ * @param route The combined pick list, with one item for each location visited, in grid order.
+ * @param notFilled The orders that could not be filled and were left untouched.
+ */
+public record Wave(Map<Integer, List<PickListItem>> pickLists, List<PickListItem> route, List<CustomerOrder> notFilled) {
+
+    /**
+     * Returns a formatted string of the wave.
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("Wave of %d orders visiting %d locations, %d not filled: route %s",
+                pickLists.size(), route.size(), notFilled.size(), route);
+    }
+}
@@ -2,26 +2,137 @@ package webview;
 
 import webview.converter.*;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * Class to write static versions of the Warehouse HTML pages.
- * This needs to be run whenever the database is changed.
+ * This needs to be run whenever the database is changed, but only the pages built from tables that have
+ * changed since the last run are written again. Run it with --all to write every page.
+ * The pages are written at the same time, each reading through its own read-only connection,
+ * so the slowest page sets how long it takes.
  */
 public class ConvertToHTML {
     /**
      * @param args the command line arguments
      */
-    public static void main(String[] args) throws ClassNotFoundException
+    public static void main(String[] args) throws ClassNotFoundException, InterruptedException
     {
+        boolean writeAll = Arrays.asList(args).contains("--all");
         // Make sure the driver is available.
         Class.forName("org.sqlite.JDBC");
-        DatabaseReader reader = new DatabaseReader(Config.SQLDatabase);
-        WriteCustomers.write(reader, Config.SITE_ADDRESS + Config.CUSTOMERS);
-        WriteOrders.write(reader, Config.SITE_ADDRESS + Config.ORDERS);
-        WritePurchaseOrders.write(reader, Config.SITE_ADDRESS + Config.PURCHASE_ORDERS);
-        WriteDeliveries.write(reader, Config.SITE_ADDRESS + Config.DELIVERIES);
-        WriteWarehouse.write(reader, Config.SITE_ADDRESS + Config.WAREHOUSE);
-        WriteAllParts.write(reader, Config.SITE_ADDRESS + Config.ALL_PARTS);
+        try (DatabaseReader reader = new DatabaseReader(Config.SQLDatabase, true)) {
+            // Find the pages built from tables that have changed since they were last written.
+            TableVersions tableVersions = new TableVersions(Config.SQLDatabase, Page.allTables());
+            boolean tracked = tableVersions.install(reader);
+            // Read the versions before writing, so a change made while writing is picked up next time.
+            Map<String, String> versions = tableVersions.read(reader);
+            writeChangedPages(reader, versions, tracked, Config.SITE_ADDRESS, writeAll);
+        }
         System.out.println("HTML files written to " + Config.SITE_ADDRESS + Config.WAREHOUSE);
         System.out.println("View the HTML files by running the ViewHTML config in IntelliJ.");
     }
+
+    /**
+     * Write the pages built from tables whose versions differ from the ones saved with the site, then save the
+     * new versions. They are only saved if every page was written, so a page that failed is tried again next time
+     * even if none of its tables change.
+     * @param reader The database reader the pages use.
+     * @param versions The version of each table, read before writing.
+     * @param tracked Whether the versions were already being kept, so they can be compared with the saved ones.
+     * @param siteAddress The directory of the site.
+     * @param writeAll true to write every page.
+     * @return true if every page was written.
+     * @throws InterruptedException If interrupted while waiting for the pages.
+     */
+    public static boolean writeChangedPages(DatabaseReader reader, Map<String, String> versions, boolean tracked,
+                                            String siteAddress, boolean writeAll) throws InterruptedException
+    {
+        String versionsFile = siteAddress + Config.TABLE_VERSIONS;
+        Map<String, String> lastVersions = tracked ? TableVersions.load(versionsFile) : Map.of();
+        List<Page> toWrite = new ArrayList<>();
+        for (Page page : Page.ALL) {
+            boolean changed = writeAll || !new File(siteAddress + page.fileName()).exists();
+            for (String table : page.tables()) {
+                changed |= versions.get(table) == null || !versions.get(table).equals(lastVersions.get(table));
+            }
+            if (changed) {
+                toWrite.add(page);
+            }
+            else {
+                System.out.printf("%-16s unchanged%n", page.name() + ":");
+            }
+        }
+
+        boolean allWritten = writePages(toWrite, reader, siteAddress);
+        if (allWritten && !versions.isEmpty()) {
+            TableVersions.save(versionsFile, versions);
+        }
+        return allWritten;
+    }
+
+    /**
+     * Write the pages at the same time, then report how long each took, the total time and the queries run.
+     * Each page is rendered into a temporary file that replaces the page only once it is complete, so a page
+     * that fails leaves the one written last time in place.
+     * @param pages The pages to write.
+     * @param reader The database reader the pages use.
+     * @param siteAddress The directory of the site.
+     * @return true if every page was written.
+     * @throws InterruptedException If interrupted while waiting for the pages.
+     */
+    private static boolean writePages(List<Page> pages, DatabaseReader reader, String siteAddress)
+            throws InterruptedException
+    {
+        if (pages.isEmpty()) {
+            return true;
+        }
+        boolean allWritten = true;
+        ExecutorService executor = Executors.newFixedThreadPool(pages.size());
+        try {
+            long start = System.nanoTime();
+            Map<String, Future<Long>> timings = new LinkedHashMap<>();
+            for (Page page : pages) {
+                timings.put(page.name(), executor.submit(() -> {
+                    long pageStart = System.nanoTime();
+                    Path target = Path.of(siteAddress, page.fileName());
+                    Path temporary = target.resolveSibling(page.fileName() + ".tmp");
+                    try {
+                        try (Writer out = new BufferedWriter(new FileWriter(temporary.toFile()))) {
+                            page.renderer().write(reader, out);
+                        }
+                        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temporary);
+                    }
+                    return System.nanoTime() - pageStart;
+                }));
+            }
+            for (Map.Entry<String, Future<Long>> timing : timings.entrySet()) {
+                try {
+                    System.out.printf("%-16s %8.1f ms%n", timing.getKey() + ":", timing.getValue().get() / 1e6);
+                }
+                catch (ExecutionException ex) {
+                    System.err.println("Failed to write the " + timing.getKey() + " page: " + ex.getCause());
+                    allWritten = false;
+                }
+            }
+            System.out.printf("%-16s %8.1f ms, %d queries%n", "Total:", (System.nanoTime() - start) / 1e6,
+                    reader.getQueryCount());
+        }
+        finally {
+            executor.shutdown();
+        }
+        return allWritten;
+    }
 }
@@ -0,0 +1,307 @@
+package webview;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import webview.converter.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serve the Warehouse pages live, instead of as files written by ConvertToHTML.
+ * Each page is rendered in memory the first time it is asked for and kept, along with a gzipped copy,
+ * until one of the tables it is built from changes. The versions of the tables are checked at most once
+ * a second, so however many terminals poll the server, the database sees one small query a second plus
+ * one render for each page that has actually changed.
+ * Every response carries an ETag, so a terminal that already has the page gets a short 304 reply.
+ * The JDK server sends the headers and the body of a response separately, so on a loopback connection a page
+ * can wait for a delayed ACK. Start the JVM with -Dsun.net.httpserver.nodelay=true to send it straight away;
+ * the server does not set it, as it applies to every HttpServer in the JVM.
+ */
+public class WarehouseServer {
+    // The port served on by default.
+    private static final int DEFAULT_PORT = 8080;
+    // The number of threads answering requests.
+    private static final int THREADS = 8;
+    // How often to check whether the tables have changed.
+    private static final long CHECK_INTERVAL_NANOS = 1_000_000_000L;
+
+    /**
+     * A rendered page.
+     * @param versions The versions of the tables it was rendered from.
+     * @param etag The entity tag identifying the content, without its quotes.
+     * @param body The page.
+     * @param gzipped The page, gzipped.
+     */
+    private record Rendered(String versions, String etag, byte[] body, byte[] gzipped) {
+    }
+
+    // The database reader the pages are rendered with.
+    private final DatabaseReader reader;
+    // The versions of the tables the pages are built from.
+    private final TableVersions tableVersions;
+    // The pages by their paths.
+    private final Map<String, Page> pages = new HashMap<>();
+    // The latest rendering of each page by its path.
+    private final Map<String, Rendered> rendered = new ConcurrentHashMap<>();
+    // The style sheet, or null if there is none.
+    private final Rendered styleSheet;
+    // The most recently read versions of the tables.
+    private volatile Map<String, String> versions = Map.of();
+    // When the versions were last read.
+    private volatile long lastCheck;
+    // Counts the checks, standing in for the versions if they are not being kept.
+    private volatile long checks = 0;
+    // The server, once started.
+    private HttpServer server;
+    // The threads answering requests, once started.
+    private ExecutorService executor;
+
+    /**
+     * Create a server for the pages of the database.
+     * @param reader The database reader to render the pages with.
+     * @param database The name of the database.
+     * @param siteAddress Where the style sheet is kept.
+     */
+    public WarehouseServer(DatabaseReader reader, String database, String siteAddress) {
+        this.reader = reader;
+        tableVersions = new TableVersions(database, Page.allTables());
+        for (Page page : Page.ALL) {
+            pages.put("/" + page.fileName(), page);
+        }
+        Rendered style;
+        try {
+            byte[] body = Files.readAllBytes(Path.of(siteAddress, "style.css"));
+            style = new Rendered("", etagOf(body), body, gzip(body));
+        } catch (IOException e) {
+            style = null;
+        }
+        styleSheet = style;
+    }
+
+    /**
+     * Start serving.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be listened on.
+     */
+    public void start(int port) throws IOException {
+        tableVersions.install(reader);
+        lastCheck = System.nanoTime() - CHECK_INTERVAL_NANOS;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(THREADS);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Get the port being served on.
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving, letting requests that have started finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Answer a request.
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        // A response with no body, such as a 304, completes the exchange as soon as its headers are sent, and the
+        // JDK server then closes the connection unless the request has been read to the end. The client may
+        // already have sent its next request on it, so the request is read to the end before anything is sent.
+        exchange.getRequestBody().close();
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/")) {
+                exchange.getResponseHeaders().set("Location", "/" + Config.WAREHOUSE);
+                exchange.sendResponseHeaders(302, -1);
+                return;
+            }
+            if (path.equals("/style.css") && styleSheet != null) {
+                send(exchange, "text/css", styleSheet);
+                return;
+            }
+            Page page = pages.get(path);
+            if (page == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            send(exchange, "text/html; charset=UTF-8", render(page, path));
+        } catch (RuntimeException e) {
+            System.err.println("Failed to render " + exchange.getRequestURI() + ": " + e);
+            // Once the headers are out, the status cannot be changed, and closing the exchange cuts the response short.
+            if (exchange.getResponseCode() == -1) {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send a page, or just that it has not changed if the client already has it.
+     * @param exchange The request and its response.
+     * @param contentType The type of the page.
+     * @param page The page.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void send(HttpExchange exchange, String contentType, Rendered page) throws IOException {
+        // The gzipped copy is a different representation, so it gets a tag of its own.
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzipped = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = gzipped ? page.gzipped() : page.body();
+        String etag = '"' + page.etag() + (gzipped ? "-gzip" : "") + '"';
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "no-cache");
+        headers.set("Vary", "Accept-Encoding");
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(etag))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if (gzipped) {
+            headers.set("Content-Encoding", "gzip");
+        }
+        headers.set("Content-Type", contentType);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            headers.set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Get the page, rendering it again if any of its tables have changed since it was last rendered.
+     * Only one thread renders a page at a time; the others wait for it and share the result.
+     * @param page The page.
+     * @param path The path of the page.
+     * @return The rendered page.
+     */
+    private Rendered render(Page page, String path) {
+        Map<String, String> current = currentVersions();
+        StringBuilder key = new StringBuilder();
+        if (current.isEmpty()) {
+            // Without versions, render again after every check.
+            key.append(checks);
+        }
+        for (String table : page.tables()) {
+            key.append(current.get(table)).append(';');
+        }
+        String pageVersions = key.toString();
+        Rendered latest = rendered.get(path);
+        if (latest != null && latest.versions().equals(pageVersions)) {
+            return latest;
+        }
+        synchronized (page) {
+            latest = rendered.get(path);
+            if (latest != null && latest.versions().equals(pageVersions)) {
+                return latest;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+                    page.renderer().write(reader, out);
+                }
+                byte[] body = bytes.toByteArray();
+                latest = new Rendered(pageVersions, etagOf(body), body, gzip(body));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rendered.put(path, latest);
+            return latest;
+        }
+    }
+
+    /**
+     * Get the versions of the tables, reading them again if they have not been read for a while.
+     * @return The version of each table, or an empty map if they are not being kept.
+     */
+    private Map<String, String> currentVersions() {
+        if (System.nanoTime() - lastCheck >= CHECK_INTERVAL_NANOS) {
+            synchronized (this) {
+                if (System.nanoTime() - lastCheck >= CHECK_INTERVAL_NANOS) {
+                    versions = tableVersions.read(reader);
+                    checks++;
+                    lastCheck = System.nanoTime();
+                }
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Make an entity tag for the content.
+     * @param body The content.
+     * @return The tag, without its quotes.
+     */
+    private static String etagOf(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return String.format("%x-%x", body.length, crc.getValue());
+    }
+
+    /**
+     * Gzip the content.
+     * @param body The content.
+     * @return The gzipped content.
+     */
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param args the command line arguments: the port to serve on, 8080 by default.
+     */
+    public static void main(String[] args) throws ClassNotFoundException, IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        // Make sure the driver is available.
+        Class.forName("org.sqlite.JDBC");
+        DatabaseReader reader = new DatabaseReader(Config.SQLDatabase, true);
+        WarehouseServer server = new WarehouseServer(reader, Config.SQLDatabase, Config.SITE_ADDRESS);
+        server.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            reader.close();
+        }));
+        System.out.println("Serving the warehouse at http://localhost:" + server.getPort() + "/");
+    }
+}
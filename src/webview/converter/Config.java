@@ -14,6 +14,8 @@ public interface Config {
     String ORDERS = "orders.html";
     String PURCHASE_ORDERS = "purchaseOrders.html";
     String DELIVERIES = "deliveries.html";
+    // Where the versions of the tables the pages were last written from are kept.
+    String TABLE_VERSIONS = ".tableVersions";
     String COMMON_HEADER = String.format(
             """
                             	  	<div class = "centre"> \s
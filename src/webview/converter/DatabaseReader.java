@@ -1,28 +1,141 @@
 package webview.converter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
 
 /**
  * Write the tables of the Warehouse database to separate HTML files.
+ * Connections are kept open in a small pool and reused, along with the prepared statements run on them,
+ * so a query does not pay for setting up a connection. Close the reader when finished to close them.
+ * A reader can be shared by several threads, each query using a connection of its own.
  */
-public class DatabaseReader {
+public class DatabaseReader implements AutoCloseable {
     //    private static final Logger logger = LoggerFactory.getLogger(Main.class);
     // The name of the database.
     private final String database;
     // SQLite connection string
     private final String url;
+    // The properties each connection is opened with.
+    private final Properties properties = new Properties();
+    // The number of queries run so far.
+    private final AtomicInteger queryCount = new AtomicInteger();
+    // The most connections kept open while not in use, enough for every page to be written at once.
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    // The SQLite open flag for a read-only connection.
+    private static final String SQLITE_OPEN_READONLY = "1";
+    // The settings every connection is opened with, which the driver applies as pragmas: a larger page cache,
+    // reading through a memory map, and waiting for a writer to finish rather than failing.
+    private static final Map<String, String> CONNECTION_PRAGMAS = Map.of(
+            "cache_size", "-16384",
+            "mmap_size", "268435456",
+            "busy_timeout", "5000");
+    // The most prepared statements kept for each connection.
+    private static final int MAX_STATEMENTS = 32;
+    // Open connections that are not in use. Guarded by this.
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    // Whether the reader has been closed. Guarded by this.
+    private boolean closed = false;
 
+    /**
+     * Something to do with each row of a query as it is read.
+     */
+    public interface RowHandler {
+        /**
+         * Handle one row.
+         * @param row The row, as a map from column name to value. It is only valid until the next row is read.
+         * @throws IOException If the row cannot be written out.
+         */
+        void handle(Map<String, String> row) throws IOException;
+    }
+
+    /**
+     * An open connection with the statements that have been prepared on it.
+     */
+    private static class PooledConnection {
+        private final Connection connection;
+        // The prepared statements by their SQL, least recently used first.
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() > MAX_STATEMENTS) {
+                            closeQuietly(eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Get a prepared statement for the query, preparing it the first time it is asked for.
+         * @param sql The query.
+         * @return The statement.
+         * @throws SQLException If the query cannot be prepared.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Close the statements and the connection.
+         */
+        void close() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            closeQuietly(connection);
+        }
+    }
 
     public DatabaseReader(String database) {
+        this(database, false);
+    }
+
+    /**
+     * Create a reader for the database.
+     * @param database The name of the database.
+     * @param readOnly true to open read-only connections, which several threads can read through at once
+     *                 and which cannot change the database by mistake.
+     */
+    public DatabaseReader(String database, boolean readOnly) {
         this.database = database;
         url = "jdbc:sqlite:" + database;
+        properties.putAll(CONNECTION_PRAGMAS);
+        if (readOnly) {
+            properties.setProperty("open_mode", SQLITE_OPEN_READONLY);
+        }
+    }
+
+    /**
+     * Get the number of queries run by this reader so far.
+     * Comparing it before and after writing a page gives the round trips the page cost.
+     * @return The number of queries.
+     */
+    public int getQueryCount() {
+        return queryCount.get();
     }
 
     /**
@@ -30,50 +143,144 @@ public class DatabaseReader {
      *
      * @param database the name of the database
      * @return the Connection object
+     * @throws IOException If the database cannot be opened.
      */
-    private Connection connect(String database) {
-        Connection conn = null;
+    private Connection connect(String database) throws IOException {
         try {
-            conn = DriverManager.getConnection(url);
+            return DriverManager.getConnection(url, properties);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            throw new IOException("Failed to open " + database + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Take a connection from the pool, opening a new one if none are free.
+     * @return The connection.
+     * @throws IOException If the database cannot be opened.
+     */
+    private PooledConnection borrow() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The database reader has been closed.");
+            }
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        return new PooledConnection(connect(database));
+    }
+
+    /**
+     * Return a connection to the pool, closing it if the pool is full or the reader has been closed.
+     * @param pooled The connection.
+     */
+    private void giveBack(PooledConnection pooled) {
+        synchronized (this) {
+            if (!closed && idle.size() < MAX_IDLE_CONNECTIONS) {
+                idle.push(pooled);
+                return;
+            }
         }
-        return conn;
+        pooled.close();
     }
 
+    /**
+     * Close every pooled connection. Connections in use are closed when they are given back.
+     */
+    @Override
+    public void close() {
+        List<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : toClose) {
+            pooled.close();
+        }
+    }
+
+    /**
+     * Close a statement or connection, ignoring any failure as there is nothing more to do with it.
+     * @param resource What to close.
+     */
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
 
     /**
      * Use the given query to retrieve data as a list of maps from column name to value.
+     * The whole result is held in memory, so use forEachRow for anything that could be large.
      * @param sql The query
      * @return The table as a list of maps.
+     * @throws UncheckedIOException If the query fails, as adding to the list cannot.
      */
     public List<Map<String, String>> getTable(String sql) {
         List<Map<String, String>> contents = new ArrayList<>();
-        try (Connection conn = this.connect(database);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try {
+            forEachRow(sql, row -> contents.add(new HashMap<>(row)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return contents;
+    }
+
+    /**
+     * Run the given query and pass each row to the handler as it is read, so only one row is held at a time.
+     * The same map is reused for every row.
+     * A query that fails is never treated as returning fewer rows, so a page is not written from part of a table.
+     * @param sql The query
+     * @param handler What to do with each row.
+     * @throws IOException If the database cannot be opened, the query fails, or the handler fails, which stops
+     *                     the query.
+     */
+    public void forEachRow(String sql, RowHandler handler) throws IOException {
+        queryCount.incrementAndGet();
+        PooledConnection pooled = borrow();
+        boolean broken = false;
+        try (ResultSet rs = pooled.prepare(sql).executeQuery()) {
              ResultSetMetaData metaData = rs.getMetaData();
              int columnCount = metaData.getColumnCount();
+             String[] names = new String[columnCount + 1];
+             for (int columnNumber = 1; columnNumber <= columnCount; columnNumber++) {
+                 names[columnNumber] = metaData.getColumnName(columnNumber);
+             }
+             Map<String, String> row = new HashMap<>();
              while (rs.next()) {
-                 Map<String, String> row = new HashMap<>();
                  for (int columnNumber = 1; columnNumber <= columnCount; columnNumber++) {
-                    String name = metaData.getColumnName(columnNumber);
-                    row.put(name, rs.getString(columnNumber));
+                    row.put(names[columnNumber], rs.getString(columnNumber));
                 }
-                 contents.add(row);
+                 handler.handle(row);
             }
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            broken = true;
+            throw new IOException("Failed to run " + sql + ": " + e.getMessage(), e);
+        } finally {
+            // A connection that failed is not trusted again.
+            if (broken) {
+                pooled.close();
+            } else {
+                giveBack(pooled);
+            }
         }
-        return contents;
     }
 
     public void selectAll(String tableName) {
         String sql = "SELECT * FROM " + tableName;
-
-        try (Connection conn = this.connect(database);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        queryCount.incrementAndGet();
+        PooledConnection pooled;
+        try {
+            pooled = borrow();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        boolean broken = false;
+        try (ResultSet rs = pooled.prepare(sql).executeQuery()) {
              ResultSetMetaData metaData = rs.getMetaData();
              int columnCount = metaData.getColumnCount();
              while (rs.next()) {
@@ -99,6 +306,13 @@ public class DatabaseReader {
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            broken = true;
+        } finally {
+            if (broken) {
+                pooled.close();
+            } else {
+                giveBack(pooled);
+            }
         }
     }
 }
\ No newline at end of file
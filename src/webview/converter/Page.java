@@ -0,0 +1,65 @@
+package webview.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A page of the site, with the tables it is built from and how to write it.
+ * @param name The name of the page.
+ * @param fileName The name of the page's file in the site.
+ * @param tables The tables the page is built from.
+ * @param renderer Writes the page.
+ */
+public record Page(String name, String fileName, List<String> tables, Renderer renderer) {
+
+    /**
+     * Writes a page from the database.
+     */
+    public interface Renderer {
+        /**
+         * Write the page.
+         * @param reader The database reader.
+         * @param out Where to write the page.
+         * @throws IOException If the page cannot be written.
+         */
+        void write(DatabaseReader reader, Writer out) throws IOException;
+    }
+
+    /**
+     * Every page of the site.
+     */
+    public static final List<Page> ALL = List.of(
+            new Page("Customers", Config.CUSTOMERS,
+                    List.of("customers"),
+                    WriteCustomers::write),
+            new Page("Orders", Config.ORDERS,
+                    List.of("customerOrderItems", "customerOrders", "customers", "parts"),
+                    WriteOrders::write),
+            new Page("Purchase orders", Config.PURCHASE_ORDERS,
+                    List.of("purchaseOrderItems", "purchaseOrders", "parts", "partTypes"),
+                    WritePurchaseOrders::write),
+            new Page("Deliveries", Config.DELIVERIES,
+                    List.of("deliveryItems", "deliveries", "parts", "partTypes"),
+                    WriteDeliveries::write),
+            new Page("Warehouse", Config.WAREHOUSE,
+                    List.of("warehouse", "parts", "partTypes"),
+                    WriteWarehouse::write),
+            new Page("All parts", Config.ALL_PARTS,
+                    List.of("parts", "partTypes", "warehouse"),
+                    WriteAllParts::write));
+
+    /**
+     * Get every table that any page is built from.
+     * @return The tables.
+     */
+    public static Set<String> allTables() {
+        Set<String> tables = new TreeSet<>();
+        for (Page page : ALL) {
+            tables.addAll(page.tables());
+        }
+        return tables;
+    }
+}
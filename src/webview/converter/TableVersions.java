@@ -0,0 +1,167 @@
+package webview.converter;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Keep a version number for each table of the database that goes up whenever the table changes,
+ * so a page only needs writing again when one of the tables it is built from has moved on.
+ * The versions are kept in the tableVersions table by triggers on each table, so they stay up to date
+ * whichever program changes the database. A random epoch is kept with them, so the versions of a different
+ * copy of the database are never mistaken for these ones.
+ */
+public class TableVersions {
+    // The table holding the versions.
+    private static final String VERSIONS_TABLE = "tableVersions";
+    // The row of the versions table holding the epoch.
+    private static final String EPOCH = "*epoch*";
+    // The changes that can be made to a table.
+    private static final List<String> EVENTS = List.of("INSERT", "UPDATE", "DELETE");
+    // The name of the database.
+    private final String database;
+    // The tables to keep versions of.
+    private final List<String> tables;
+
+    /**
+     * Keep versions of the given tables.
+     * @param database The name of the database.
+     * @param tables The tables.
+     */
+    public TableVersions(String database, Collection<String> tables) {
+        this.database = database;
+        this.tables = List.copyOf(tables);
+    }
+
+    /**
+     * Make sure the versions are being kept, adding the versions table and the triggers if any are missing.
+     * Adding them needs a connection that can write to the database, which is only opened if they are missing.
+     * @param reader A reader for the database.
+     * @return true if the versions were already being kept, so they can be compared with ones read before.
+     */
+    public boolean install(DatabaseReader reader) {
+        if (isInstalled(reader)) {
+            return true;
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + VERSIONS_TABLE
+                        + " (tableName TEXT PRIMARY KEY, version INTEGER NOT NULL)");
+                // Changes may have been missed while triggers were missing, so start a new epoch.
+                stmt.executeUpdate(String.format("INSERT OR REPLACE INTO %s VALUES ('%s', %d)",
+                        VERSIONS_TABLE, EPOCH, new Random().nextLong()));
+                for (String table : tables) {
+                    stmt.executeUpdate(String.format("INSERT OR IGNORE INTO %s VALUES ('%s', 0)", VERSIONS_TABLE, table));
+                    for (String event : EVENTS) {
+                        stmt.executeUpdate(String.format(
+                                "CREATE TRIGGER IF NOT EXISTS %s AFTER %s ON %s BEGIN "
+                                + "UPDATE %s SET version = version + 1 WHERE tableName = '%s'; END",
+                                triggerName(table, event), event, table, VERSIONS_TABLE, table));
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to keep track of changes to the database: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Read the current version of each table.
+     * @param reader A reader for the database.
+     * @return The version of each table, or an empty map if the versions are not being kept.
+     */
+    public Map<String, String> read(DatabaseReader reader) {
+        Map<String, String> versions = new HashMap<>();
+        if (!isInstalled(reader)) {
+            return versions;
+        }
+        String epoch = null;
+        for (Map<String, String> row : reader.getTable("SELECT tableName, version FROM " + VERSIONS_TABLE)) {
+            if (row.get("tableName").equals(EPOCH)) {
+                epoch = row.get("version");
+            } else if (tables.contains(row.get("tableName"))) {
+                versions.put(row.get("tableName"), row.get("version"));
+            }
+        }
+        for (Map.Entry<String, String> version : versions.entrySet()) {
+            version.setValue(epoch + ":" + version.getValue());
+        }
+        return versions;
+    }
+
+    /**
+     * Load the versions saved by an earlier run.
+     * @param fileName The file they were saved in.
+     * @return The version of each table, or an empty map if none were saved.
+     */
+    public static Map<String, String> load(String fileName) {
+        Properties properties = new Properties();
+        try (FileReader in = new FileReader(fileName)) {
+            properties.load(in);
+        } catch (IOException e) {
+            // Nothing has been saved yet.
+        }
+        Map<String, String> versions = new HashMap<>();
+        for (String table : properties.stringPropertyNames()) {
+            versions.put(table, properties.getProperty(table));
+        }
+        return versions;
+    }
+
+    /**
+     * Save the versions for the next run to compare with.
+     * @param fileName The file to save them in.
+     * @param versions The version of each table.
+     */
+    public static void save(String fileName, Map<String, String> versions) {
+        Properties properties = new Properties();
+        properties.putAll(versions);
+        try (FileWriter out = new FileWriter(fileName)) {
+            properties.store(out, "The versions of the tables the pages were last written from.");
+        } catch (IOException e) {
+            System.err.println("Failed to write " + fileName);
+        }
+    }
+
+    /**
+     * Check whether the versions table and every trigger are in the database.
+     * @param reader A reader for the database.
+     * @return true if they are all there.
+     */
+    private boolean isInstalled(DatabaseReader reader) {
+        StringJoiner triggers = new StringJoiner("', '", "'", "'");
+        for (String table : tables) {
+            for (String event : EVENTS) {
+                triggers.add(triggerName(table, event));
+            }
+        }
+        List<Map<String, String>> found = reader.getTable(String.format(
+                "SELECT (SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = '%s') AS versionTables, "
+                + "(SELECT count(*) FROM sqlite_master WHERE type = 'trigger' AND name IN (%s)) AS triggers",
+                VERSIONS_TABLE, triggers));
+        return !found.isEmpty()
+                && Integer.parseInt(found.get(0).get("versionTables")) == 1
+                && Integer.parseInt(found.get(0).get("triggers")) == tables.size() * EVENTS.size();
+    }
+
+    /**
+     * The name of the trigger that counts one kind of change to a table.
+     * @param table The table.
+     * @param event The kind of change.
+     * @return The name of the trigger.
+     */
+    private static String triggerName(String table, String event) {
+        return table + "_version_" + event.toLowerCase();
+    }
+}
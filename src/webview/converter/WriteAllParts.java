@@ -1,7 +1,11 @@
 package webview.converter;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -15,43 +19,91 @@ public class WriteAllParts {
            """;
 
     public static void write(DatabaseReader reader, String filename) {
-        StringBuilder builder = new StringBuilder();
-        builder.append(
+        try(Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            write(reader, writer);
+        }
+        catch(IOException ex) {
+            System.err.println("Failed to write " + filename);
+        }
+    }
+
+    /**
+     * Write the page, rendering each part as it is read from the database.
+     * @param reader The database reader.
+     * @param out Where to write the page.
+     * @throws IOException If the page cannot be written.
+     */
+    public static void write(DatabaseReader reader, Writer out) throws IOException {
+        out.write(
                 """
                         <!DOCTYPE html>
                         <html>
                         """);
-        builder.append(header).append('\n');
-        builder.append(Config.COMMON_HEADER);
-        builder.append("<body>\n");
-        builder.append("<h2 class = \"centre\">All Parts by Type</h2>\n");
-        builder.append("<table class='center two'>\n");
-        List<Map<String, String>> contents = reader.getTable(
+        out.write(header);
+        out.write('\n');
+        out.write(Config.COMMON_HEADER);
+        out.write("<body>\n");
+        out.write("<h2 class = \"centre\">All Parts by Type</h2>\n");
+        out.write("<table class='center two'>\n");
+        // Read where every part is stored in one query, rather than asking for each part in turn.
+        Map<String, List<Map<String, String>>> stock = new HashMap<>();
+        for(Map<String, String> row : reader.getTable("SELECT partCode, location, quantity FROM warehouse")) {
+            stock.computeIfAbsent(row.get("partCode"), partCode -> new ArrayList<>()).add(row);
+        }
+        Rows rows = new Rows(stock, out);
+        reader.forEachRow(
                 """
-                SELECT manufacturer, description, price, partCode, typeDescription FROM parts, partTypes 
+                SELECT manufacturer, description, price, partCode, typeDescription FROM parts, partTypes
                 WHERE parts.type = partTypes.type ORDER BY typeDescription
-                """);
-        String previousType = null;
-        for (Map<String, String> row : contents) {
+                """, rows);
+        out.write(
+                """
+                </table>
+                <script>
+                function search(partCode) {
+                    alert(partCode);
+                }
+                </script>
+                </body>
+                </html>
+                """
+        );
+        out.write('\n');
+    }
+
+    /**
+     * Writes the parts, remembering the type of the last one to start a new section when it changes.
+     */
+    private static class Rows implements DatabaseReader.RowHandler {
+        // The locations and quantities of each part code in the warehouse.
+        private final Map<String, List<Map<String, String>>> stock;
+        private final Writer out;
+        private String previousType = null;
+
+        Rows(Map<String, List<Map<String, String>>> stock, Writer out) {
+            this.stock = stock;
+            this.out = out;
+        }
+
+        @Override
+        public void handle(Map<String, String> row) throws IOException {
             String typeDescription = row.get("typeDescription");
             if(! typeDescription.equals(previousType)) {
-                builder.append(
+                out.write(
                         String.format("<tr class='custom-tr'><td colspan='6'><strong>%s Parts:</strong></td></tr>\n",
                                 typeDescription));
-                builder.append("<th>Part</th><th>Manufacturer</th><th>Description</th><th>Price</th><th>Stock</th><th>Search</th>");
+                out.write("<th>Part</th><th>Manufacturer</th><th>Description</th><th>Price</th><th>Stock</th><th>Search</th>");
                 previousType = typeDescription;
             }
-            builder.append("<tr>");
+            out.write("<tr>");
             for(String col : List.of("partCode", "manufacturer", "description")) {
-                builder.append(String.format("<td>%s</td>", row.get(col)));
+                out.write(String.format("<td>%s</td>", row.get(col)));
             }
             double price = Double.parseDouble(row.get("price"));
-            builder.append(String.format("<td>%s%.2f</td>", Config.CURRENCY_SYMBOL, price));
+            out.write(String.format("<td>%s%.2f</td>", Config.CURRENCY_SYMBOL, price));
             int totalQuantity = 0;
             String partCode = row.get("partCode");
-            List<Map<String, String>> partRows =
-                    reader.getTable(String.format("SELECT location, quantity FROM warehouse WHERE partCode = '%s' ",
-                                                partCode));
+            List<Map<String, String>> partRows = stock.getOrDefault(partCode, List.of());
             StringBuilder locationList = new StringBuilder();
             locationList.append("All locations of part ").append(partCode).append("\\n");
             if(! partRows.isEmpty()) {
@@ -65,31 +117,11 @@ public class WriteAllParts {
             else {
                 locationList.append("There are none in the warehouse.");
             }
-            builder.append(String.format("<td>%d</td>", totalQuantity));
-            builder.append(String.format("<td><button onClick='search(\"%s\")' class=\"button smallButton\"> Search </button></td>",
+            out.write(String.format("<td>%d</td>", totalQuantity));
+            out.write(String.format("<td><button onClick='search(\"%s\")' class=\"button smallButton\"> Search </button></td>",
                     locationList.toString()));
 
-            builder.append("</tr>\n");
-        }
-        builder.append(
-                """
-                </table>
-                <script>
-                function search(partCode) {
-                    alert(partCode);
-                }
-                </script>
-                </body>
-                </html>
-                """
-        ).append('\n');
-
-        try(FileWriter writer = new FileWriter(filename)) {
-            writer.write(builder.toString());
-        }
-        catch(IOException ex) {
-            System.err.println("Failed to write " + filename);
+            out.write("</tr>\n");
         }
     }
-
 }
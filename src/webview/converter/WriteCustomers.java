@@ -1,9 +1,10 @@
 package webview.converter;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Write the Customers table as an HTML page.
@@ -19,16 +20,32 @@ public class WriteCustomers {
 
     public static void write(DatabaseReader reader, String filename)
     {
-         StringBuilder builder = new StringBuilder();
-         builder.append(
+        try(Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            write(reader, writer);
+        }
+        catch(IOException ex) {
+            System.err.println("Failed to write " + filename);
+        }
+    }
+
+    /**
+     * Write the page, rendering each customer as it is read from the database.
+     * @param reader The database reader.
+     * @param out Where to write the page.
+     * @throws IOException If the page cannot be written.
+     */
+    public static void write(DatabaseReader reader, Writer out) throws IOException
+    {
+         out.write(
                 """
                 <!DOCTYPE html>
                 <html>
                 """);
-         builder.append(header).append('\n');
-         builder.append(Config.COMMON_HEADER);
-         builder.append("<body>\n");
-         builder.append(
+         out.write(header);
+         out.write('\n');
+         out.write(Config.COMMON_HEADER);
+         out.write("<body>\n");
+         out.write(
                 """
                  <h2 class = "centre">Customers</h1>
                 <table class = "center">
@@ -38,32 +55,27 @@ public class WriteCustomers {
                 <th>Phone Number</th>
                 <th>Address</th>
                 """
-        ).append('\n');
+        );
+        out.write('\n');
 
-        List<Map<String, String>> contents = reader.getTable(
-                "SELECT customerCode, businessName, email, phoneNumber, address FROM customers ORDER BY businessName");
-        for(Map<String, String> row : contents) {
-            builder.append("<tr>");
+        String sql = "SELECT customerCode, businessName, email, phoneNumber, address FROM customers ORDER BY businessName";
+        reader.forEachRow(sql, row -> {
+            out.write("<tr>");
             for(String col : List.of("customerCode", "businessName", "email", "phoneNumber", "address")) {
-                builder.append("<td>");
-                builder.append(row.get(col));
-                builder.append("</td>");
+                out.write("<td>");
+                out.write(String.valueOf(row.get(col)));
+                out.write("</td>");
             }
-            builder.append("</tr>").append('\n');
-        }
-        builder.append(
+            out.write("</tr>");
+            out.write('\n');
+        });
+        out.write(
                 """
                 </table>
                 </body>
                 </html>
                 """
-        ).append('\n');
-
-        try(FileWriter writer = new FileWriter(filename)) {
-            writer.write(builder.toString());
-        }
-        catch(IOException ex) {
-            System.err.println("Failed to write " + filename);
-        }
+        );
+        out.write('\n');
     }
 }
@@ -1,7 +1,9 @@
 package webview.converter;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 
@@ -14,17 +16,34 @@ public class WriteOrders {
                     </head>
            """;
     public static void write(DatabaseReader reader, String filename) {
-        StringBuilder builder = new StringBuilder();
-        builder.append(
+        try(Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            write(reader, writer);
+        }
+        catch(IOException ex) {
+            System.err.println("Failed to write " + filename);
+        }
+    }
+
+    /**
+     * Write the page, rendering each order line as it is read from the database,
+     * so the memory used does not grow with the number of orders.
+     * @param reader The database reader.
+     * @param out Where to write the page.
+     * @throws IOException If the page cannot be written.
+     */
+    public static void write(DatabaseReader reader, Writer out) throws IOException {
+        out.write(
                 """
                         <!DOCTYPE html>
                         <html>
                         """);
-        builder.append(header).append('\n');
-        builder.append(Config.COMMON_HEADER);
-        builder.append("<body>\n");
-        builder.append("<table class='center three'>\n");
-        List<Map<String, String>> contents = reader.getTable(
+        out.write(header);
+        out.write('\n');
+        out.write(Config.COMMON_HEADER);
+        out.write("<body>\n");
+        out.write("<table class='center three'>\n");
+        Rows rows = new Rows(out);
+        reader.forEachRow(
                 """
                 SELECT c.businessName,
                 c.customerCode,
@@ -42,54 +61,61 @@ public class WriteOrders {
                 JOIN parts p ON oi.partCode = p.partCode
                 WHERE o.fulfilled = 'N'
                 ORDER BY oi.orderNumber, oi.partCode;
-        """);
+        """, rows);
+
+        if(rows.previousOrder != null) {
+            out.write(String.format("<tr><td colspan='4'><strong>TOTAL:</strong></td><td><strong>%s%.2f</strong></td></tr>",
+                    Config.CURRENCY_SYMBOL, rows.currentCustomerTotal));
+        }
+        out.write(String.format("<tr><td colspan='4'><strong>Total for All Orders:</strong></td><td><strong>%s%.2f</strong></td></tr>",
+                Config.CURRENCY_SYMBOL, rows.totalAllOrders));
+
+        out.write(
+                """
+                </table>
+                </body>
+                </html>
+                """
+        );
+        out.write('\n');
+    }
 
-        double currentCustomerTotal = 0;
-        String previousOrder = null;
-        double totalAllOrders = 0;
-        for(Map<String, String> row : contents) {
+    /**
+     * Writes the order lines, keeping the running totals between rows.
+     */
+    private static class Rows implements DatabaseReader.RowHandler {
+        private final Writer out;
+        private double currentCustomerTotal = 0;
+        private String previousOrder = null;
+        private double totalAllOrders = 0;
+
+        Rows(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void handle(Map<String, String> row) throws IOException {
             String orderNumber = row.get("orderNumber");
             if(! orderNumber.equals(previousOrder)) {
                 if(previousOrder != null) {
-                    builder.append(String.format("<tr><td colspan='4'><strong>TOTAL:</strong></td><td colspan='2'><strong>%s%.2f</strong></td></tr>\n",
+                    out.write(String.format("<tr><td colspan='4'><strong>TOTAL:</strong></td><td colspan='2'><strong>%s%.2f</strong></td></tr>\n",
                             Config.CURRENCY_SYMBOL, currentCustomerTotal));
                     currentCustomerTotal = 0;
                 }
-                builder.append(String.format("<tr class='custom-tr'><td colspan='7'><strong>%s %s - Order number %s</strong></td></tr>\n",
+                out.write(String.format("<tr class='custom-tr'><td colspan='7'><strong>%s %s - Order number %s</strong></td></tr>\n",
                         row.get("customerCode"), row.get("businessName"), orderNumber));
-                builder.append("<tr><th>Item</th><th>Description</th><th>Price</th><th>Quantity</th><th>Total</th></tr>\n");
+                out.write("<tr><th>Item</th><th>Description</th><th>Price</th><th>Quantity</th><th>Total</th></tr>\n");
                 previousOrder = orderNumber;
             }
-            builder.append("<tr>");
+            out.write("<tr>");
             for(String col : List.of("partCode", "description", "price", "quantity")) {
-                builder.append(String.format("<td>%s</td>", row.get(col)));
+                out.write(String.format("<td>%s</td>", row.get(col)));
             }
-            builder.append(String.format("<td>%s%s</td>", Config.CURRENCY_SYMBOL, row.get("total")));
-            builder.append("</tr>\n");
+            out.write(String.format("<td>%s%s</td>", Config.CURRENCY_SYMBOL, row.get("total")));
+            out.write("</tr>\n");
             double total = Double.parseDouble(row.get("total"));
             currentCustomerTotal += total;
             totalAllOrders += total;
         }
-        if(previousOrder != null) {
-            builder.append(String.format("<tr><td colspan='4'><strong>TOTAL:</strong></td><td><strong>%s%.2f</strong></td></tr>",
-                    Config.CURRENCY_SYMBOL, currentCustomerTotal));
-        }
-        builder.append(String.format("<tr><td colspan='4'><strong>Total for All Orders:</strong></td><td><strong>%s%.2f</strong></td></tr>",
-                Config.CURRENCY_SYMBOL, totalAllOrders));
-
-        builder.append(
-                """
-                </table>
-                </body>
-                </html>
-                """
-        ).append('\n');
-
-        try(FileWriter writer = new FileWriter(filename)) {
-            writer.write(builder.toString());
-        }
-        catch(IOException ex) {
-            System.err.println("Failed to write " + filename);
-        }
     }
 }
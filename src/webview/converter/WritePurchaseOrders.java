@@ -1,7 +1,9 @@
 package webview.converter;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 
@@ -15,19 +17,35 @@ public class WritePurchaseOrders {
                     """;
 
     public static void write(DatabaseReader reader, String filename) {
-        StringBuilder builder = new StringBuilder();
-        builder.append(
+        try(Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            write(reader, writer);
+        }
+        catch(IOException ex) {
+            System.err.println("Failed to write " + filename);
+        }
+    }
+
+    /**
+     * Write the page, rendering each purchase order line as it is read from the database.
+     * @param reader The database reader.
+     * @param out Where to write the page.
+     * @throws IOException If the page cannot be written.
+     */
+    public static void write(DatabaseReader reader, Writer out) throws IOException {
+        out.write(
                 """
                         <!DOCTYPE html>
                         <html>
                         """);
-        builder.append(header).append('\n');
-        builder.append(Config.COMMON_HEADER);
-        builder.append("<body>\n");
-        builder.append("<h2 class = \"centre\">Purchase Orders</h2>\n");
-        builder.append("<table class='center two'>\n");
+        out.write(header);
+        out.write('\n');
+        out.write(Config.COMMON_HEADER);
+        out.write("<body>\n");
+        out.write("<h2 class = \"centre\">Purchase Orders</h2>\n");
+        out.write("<table class='center two'>\n");
 
-        List<Map<String, String>> contents = reader.getTable(
+        Rows rows = new Rows(out);
+        reader.forEachRow(
                 """
                         SELECT oi.purchaseOrderNumber,
                                    oi.partCode,
@@ -44,17 +62,44 @@ public class WritePurchaseOrders {
                             JOIN partTypes t ON p.type = t.type
                             WHERE o.fulfilled = 'N'
                             ORDER BY p.type, oi.partCode;
-                """);
-        double currentProductTotal = 0;
-        int currentProductQty = 0;
-        String previousProduct = null;
-        String previousType = null;
-        double totalAllOrders = 0;
-        for(Map<String, String> row : contents) {
+                """, rows);
+        if(rows.previousProduct != null) {
+            out.write(String.format("<tr><td><strong>TOTAL:</strong></td><td><strong>%d</strong></td><td><strong>%s%.2f</strong></td></tr>",
+                    rows.currentProductQty, Config.CURRENCY_SYMBOL, rows.currentProductTotal));
+        }
+        out.write(String.format("<tr><td colspan='2'><strong>Total for All Purchase Orders:</strong></td><td colspan='2'><strong>%s%.2f</strong></td></tr>",
+                Config.CURRENCY_SYMBOL, rows.totalAllOrders ));
+        out.write(
+                """
+                </table>
+                </body>
+                </html>
+                """
+        );
+        out.write('\n');
+    }
+
+    /**
+     * Writes the purchase order lines, keeping the running totals between rows.
+     */
+    private static class Rows implements DatabaseReader.RowHandler {
+        private final Writer out;
+        private double currentProductTotal = 0;
+        private int currentProductQty = 0;
+        private String previousProduct = null;
+        private String previousType = null;
+        private double totalAllOrders = 0;
+
+        Rows(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void handle(Map<String, String> row) throws IOException {
             String partCode = row.get("partCode");
             if (! partCode.equals(previousProduct)) {
                 if (previousProduct != null) {
-                    builder.append(String.format("<tr><td><strong>TOTAL:</td><td><strong>%d</strong></td><td><strong>%s%.2f</strong></td></tr>\n",
+                    out.write(String.format("<tr><td><strong>TOTAL:</td><td><strong>%d</strong></td><td><strong>%s%.2f</strong></td></tr>\n",
                             currentProductQty, Config.CURRENCY_SYMBOL, currentProductTotal));
                     currentProductTotal = 0;
                     currentProductQty = 0;
@@ -62,25 +107,25 @@ public class WritePurchaseOrders {
             }
             String type = row.get("type");
             if (! type.equals(previousType)) {
-                builder.append(String.format("<tr class='-tr2'><td colspan='3'><strong>%s Products</strong></td></tr>\n",
+                out.write(String.format("<tr class='-tr2'><td colspan='3'><strong>%s Products</strong></td></tr>\n",
                         row.get("typeDescription")));
                 previousType = type;
             }
 
             if (! partCode.equals(previousProduct)) {
-                builder.append(String.format("<tr class='custom-tr'><td colspan='3'><strong>Item %s: %s %s%.2f each</strong></td></tr>\n",
+                out.write(String.format("<tr class='custom-tr'><td colspan='3'><strong>Item %s: %s %s%.2f each</strong></td></tr>\n",
                         row.get("partCode"), row.get("description"), Config.CURRENCY_SYMBOL, Double.parseDouble(row.get("price"))));
-                builder.append("<tr><th>Purchase Order</th><th>Quantity</th><th>Total</th></tr>\n");
+                out.write("<tr><th>Purchase Order</th><th>Quantity</th><th>Total</th></tr>\n");
                 previousProduct = partCode;
             }
 
-            builder.append("<tr>");
+            out.write("<tr>");
             for(String col : List.of("purchaseOrderNumber", "quantity")) {
-                builder.append(String.format("<td>%s</td>", row.get(col)));
+                out.write(String.format("<td>%s</td>", row.get(col)));
             }
             double total = Double.parseDouble(row.get("total"));
-            builder.append(String.format("<td>%s%.2f</td>", Config.CURRENCY_SYMBOL, total));
-            builder.append("</tr>\n");
+            out.write(String.format("<td>%s%.2f</td>", Config.CURRENCY_SYMBOL, total));
+            out.write("</tr>\n");
 
             // Update total
             currentProductTotal += total;
@@ -89,25 +134,5 @@ public class WritePurchaseOrders {
             // Update total for all orders
             totalAllOrders += total;
         }
-        if(previousProduct != null) {
-            builder.append(String.format("<tr><td><strong>TOTAL:</strong></td><td><strong>%d</strong></td><td><strong>%s%.2f</strong></td></tr>",
-                    currentProductQty, Config.CURRENCY_SYMBOL, currentProductTotal));
-        }
-        builder.append(String.format("<tr><td colspan='2'><strong>Total for All Purchase Orders:</strong></td><td colspan='2'><strong>%s%.2f</strong></td></tr>",
-                Config.CURRENCY_SYMBOL, totalAllOrders ));
-        builder.append(
-                """
-                </table>
-                </body>
-                </html>
-                """
-        ).append('\n');
-
-        try(FileWriter writer = new FileWriter(filename)) {
-            writer.write(builder.toString());
-        }
-        catch(IOException ex) {
-            System.err.println("Failed to write " + filename);
-        }
     }
 }
@@ -2,9 +2,14 @@ import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
 import java.util.*;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -45,6 +50,8 @@ public class WarehouseTest
     @org.junit.jupiter.api.BeforeEach
     void setUp()
     {
+        // Compare the part indexes with a scan of the grid after every change.
+        Warehouse.setIndexChecking(true);
         theWarehouse = new Warehouse(numRows, numColumns);
 
         partCodeToFind = 1 + rand.nextInt(100);
@@ -623,13 +630,16 @@ public class WarehouseTest
 
     /**
      * Test the result of retrieving the product types from the database.
+     * Runs against a copy of the database, as a tuned handler switches it to a write-ahead log and adds indexes.
      */
     @Test
     @org.junit.jupiter.api.Order(29)
     void testGetProductTypes()
     {
         try {
-            DatabaseHandler databaseHandler = new DatabaseHandler();
+            Path database = Files.createTempDirectory("productTypes").resolve("warehousedata.sqlite");
+            Files.copy(Path.of("warehousedata.sqlite"), database);
+            DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), true);
             Map<String, String> types = databaseHandler.readPartTypes();
             StringBuilder actualBuilder = new StringBuilder();
             for (String theType : types.keySet()) {
@@ -657,9 +667,10 @@ public class WarehouseTest
             String actual = actualBuilder.toString().trim();
             String expected = expectedBuilder.toString().trim();
             assertEquals(expected, actual);
+            databaseHandler.close();
         } catch (SQLTimeoutException e) {
             fail("Failed to connect to the database. Make sure you are connected to the VPN if you are not on campus.");
-        } catch (SQLException | ClassNotFoundException e) {
+        } catch (SQLException | ClassNotFoundException | IOException e) {
             fail("Failed to access the database: " + e);
         }
     }
@@ -731,4 +742,814 @@ public class WarehouseTest
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that the part indexes follow a mixture of adds, picks and deliveries.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(33)
+    void testPartIndexesAfterMixedOperations()
+    {
+        // Replace a batch with one of a different part.
+        theWarehouse.addToWarehouse(partLocationsToFind.get(0), new Batch(partCodeToFind + 1, 5));
+        int expectedCount = 0;
+        for(int index = 1; index < partQuantitiesToFind.size(); index++) {
+            expectedCount += partQuantitiesToFind.get(index);
+        }
+        assertEquals(expectedCount, theWarehouse.getPartCount(partCodeToFind));
+        assertEquals(5, theWarehouse.getPartCount(partCodeToFind + 1));
+        assertFalse(theWarehouse.findPart(partCodeToFind).contains(partLocationsToFind.get(0)));
+
+        // Pick everything of the part so that it disappears from the index.
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(partCodeToFind, expectedCount));
+        theWarehouse.createAPickList(order);
+        assertEquals(0, theWarehouse.getPartCount(partCodeToFind));
+        assertTrue(theWarehouse.findPart(partCodeToFind).isEmpty());
+
+        // Deliver it again into both new and existing locations.
+        Delivery theDelivery = new Delivery(1, orderDate, false);
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind, MAX_AMOUNT + 1));
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind + 1, 1));
+        theWarehouse.storeDelivery(theDelivery);
+        assertEquals(MAX_AMOUNT + 1, theWarehouse.getPartCount(partCodeToFind));
+        assertEquals(2, theWarehouse.findPart(partCodeToFind).size());
+        assertEquals(6, theWarehouse.getPartCount(partCodeToFind + 1));
+        theWarehouse.verifyIndexes();
+    }
+
+    /**
+     * Test that the free slot count follows picks and deliveries.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(34)
+    void testFreeSlotCount()
+    {
+        int occupied = partLocationsToFind.size() + 1;
+        assertEquals(numRows * numColumns - occupied, theWarehouse.freeSlotCount());
+
+        // Emptying a location frees it.
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(partCodeToFind, partQuantitiesToFind.get(0)));
+        theWarehouse.createAPickList(order);
+        assertEquals(numRows * numColumns - occupied + 1, theWarehouse.freeSlotCount());
+
+        // The freed location is the first one to be reused.
+        Delivery theDelivery = new Delivery(1, orderDate, false);
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind + 1, 1));
+        List<Location> stored = theWarehouse.storeDelivery(theDelivery);
+        assertEquals(List.of(new Location(0, 1)), stored);
+        assertEquals(numRows * numColumns - occupied, theWarehouse.freeSlotCount());
+    }
+
+    /**
+     * Test that a delivery too big for the free space is detected without changing the warehouse.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(35)
+    void testCanBeStored()
+    {
+        int freeSlots = theWarehouse.freeSlotCount();
+        Delivery theDelivery = new Delivery(1, orderDate, false);
+        // The existing locations have room for all but MAX_AMOUNT * freeSlots of this.
+        int space = 0;
+        for (int quantity : partQuantitiesToFind) {
+            space += MAX_AMOUNT - quantity;
+        }
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind, space + MAX_AMOUNT * freeSlots));
+        assertEquals(freeSlots, theWarehouse.slotsNeeded(theDelivery));
+        assertTrue(theWarehouse.canBeStored(theDelivery));
+
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind + 1, 1));
+        assertEquals(freeSlots + 1, theWarehouse.slotsNeeded(theDelivery));
+        assertFalse(theWarehouse.canBeStored(theDelivery));
+        assertEquals(freeSlots, theWarehouse.freeSlotCount());
+    }
+
+    /**
+     * Test that a warehouse using packed storage gives the same answers as one using batch objects.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(36)
+    void testPackedStorageMatchesObjectStorage()
+    {
+        Warehouse packedWarehouse = new Warehouse(numRows, numColumns, new PackedGridStorage(numRows * numColumns));
+        for (Location aLocation : theWarehouse.getPartLocations()) {
+            Batch aBatch = theWarehouse.getBatchAt(aLocation);
+            packedWarehouse.addToWarehouse(aLocation, new Batch(aBatch.getPartCode(), aBatch.getQuantity()));
+        }
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(partCodeToFind, partQuantitiesToFind.get(0) + 1));
+        Delivery theDelivery = new Delivery(1, orderDate, false);
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind, MAX_AMOUNT));
+
+        assertEquals(theWarehouse.createAPickList(order).toString(), packedWarehouse.createAPickList(order).toString());
+        assertEquals(theWarehouse.storeDelivery(theDelivery), packedWarehouse.storeDelivery(theDelivery));
+        assertEquals(theWarehouse.getPartLocations(), packedWarehouse.getPartLocations());
+        assertEquals(theWarehouse.findPart(partCodeToFind), packedWarehouse.findPart(partCodeToFind));
+        assertEquals(theWarehouse.getPartCount(partCodeToFind), packedWarehouse.getPartCount(partCodeToFind));
+        for (Location aLocation : theWarehouse.getPartLocations()) {
+            assertEquals(theWarehouse.getBatchAt(aLocation).toString(), packedWarehouse.getBatchAt(aLocation).toString());
+        }
+        assertNull(packedWarehouse.getBatchAt(partLocationsToFind.get(0)), "Empty locations in the warehouse must be null.");
+    }
+
+    /**
+     * Test that only the locations touched by picks and deliveries are reported as changed.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(37)
+    void testChangedLocations()
+    {
+        assertFalse(theWarehouse.isTrackingChanges(), "A new warehouse must be written in full.");
+        theWarehouse.markClean();
+        assertTrue(theWarehouse.isTrackingChanges());
+        assertTrue(theWarehouse.getChangedLocations().isEmpty());
+
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(partCodeToFind, partQuantitiesToFind.get(0) + 1));
+        theWarehouse.createAPickList(order);
+        Delivery theDelivery = new Delivery(1, orderDate, false);
+        theDelivery.getAllBatches().addBatch(new Batch(partCodeToFind + 1, 1));
+        List<Location> stored = theWarehouse.storeDelivery(theDelivery);
+
+        Set<Location> expected = new HashSet<>(partLocationsToFind.subList(0, 2));
+        expected.addAll(stored);
+        assertEquals(expected, new HashSet<>(theWarehouse.getChangedLocations()));
+
+        theWarehouse.markClean();
+        assertTrue(theWarehouse.getChangedLocations().isEmpty());
+    }
+
+    /**
+     * Test that dates read in the database form compare and print as they did.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(38)
+    void testDateParseAndFormat()
+    {
+        Date earlier = new Date("2024-02-29 23:59:59");
+        Date later = new Date("2024-03-01 00:00:00");
+        assertEquals("2024-02-29 23:59:59", earlier.toString());
+        assertEquals("2024-03-01 00:00:00", later.toString());
+        assertTrue(earlier.before(later));
+        assertTrue(later.after(earlier));
+        assertFalse(earlier.after(later));
+        assertEquals(earlier, new Date("2024-2-29 23:59:59"));
+        assertEquals(earlier, new Date(earlier));
+        assertEquals(earlier.hashCode(), new Date("2024-02-29 23:59:59").hashCode());
+        assertEquals(new Date("1969-12-31 12:00:00"),
+                new Date(new GregorianCalendar(1969, Calendar.DECEMBER, 31, 12, 0, 0)));
+        // A calendar in another time zone, as getNow uses, prints the local time, as SimpleDateFormat did.
+        Calendar gmt = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+        gmt.set(2024, Calendar.JUNE, 1, 12, 0, 0);
+        assertEquals(new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(gmt.getTime()),
+                new Date(gmt).toString());
+        assertThrows(IllegalArgumentException.class, () -> new Date("2024-02-2x 23:59:59"));
+    }
+
+    /**
+     * Test picking a wave of orders that share a part, where one order cannot be filled.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(39)
+    void testCreateWavePickLists()
+    {
+        int totalQuantity = 0;
+        for (int quantity : partQuantitiesToFind) {
+            totalQuantity += quantity;
+        }
+        CustomerOrder first = new CustomerOrder(1, customerCode, orderDate, false);
+        first.getAllBatches().addBatch(new Batch(partCodeToFind, 2));
+        CustomerOrder tooBig = new CustomerOrder(2, customerCode, orderDate, false);
+        tooBig.getAllBatches().addBatch(new Batch(partCodeToFind, totalQuantity));
+        CustomerOrder second = new CustomerOrder(3, customerCode, orderDate, false);
+        second.getAllBatches().addBatch(new Batch(partCodeToFind, 3));
+        second.getAllBatches().addBatch(new Batch(partCodeToFind * 7, 1));
+
+        Wave wave = theWarehouse.createWavePickLists(List.of(first, tooBig, second));
+
+        assertEquals(List.of(tooBig), wave.notFilled());
+        assertEquals(List.of(1, 3), new ArrayList<>(wave.pickLists().keySet()));
+        // The first order empties (1,1) and takes one from (2,4); the second takes the rest of (2,4) then (3,5).
+        assertEquals("[Location: (1,1) Batch: Part code: " + partCodeToFind + ", quantity 1, "
+                        + "Location: (2,4) Batch: Part code: " + partCodeToFind + ", quantity 1]",
+                wave.pickLists().get(1).toString());
+        assertEquals(3, wave.pickLists().get(3).size());
+        // Each location is visited once, in grid order.
+        List<Location> visited = new ArrayList<>();
+        for (PickListItem item : wave.route()) {
+            visited.add(item.theLocation());
+        }
+        assertEquals(List.of(locationToNotFind, partLocationsToFind.get(0), partLocationsToFind.get(1), partLocationsToFind.get(2)), visited);
+        assertEquals(totalQuantity - 5, theWarehouse.getPartCount(partCodeToFind));
+        assertEquals(MAX_AMOUNT - 1, theWarehouse.getPartCount(partCodeToFind * 7));
+
+        // A second order with the same number would replace the first one's pick list, so nothing is picked.
+        CustomerOrder again = new CustomerOrder(1, customerCode, orderDate, false);
+        again.getAllBatches().addBatch(new Batch(partCodeToFind * 7, 1));
+        assertThrows(IllegalArgumentException.class, () -> theWarehouse.createWavePickLists(List.of(first, again)));
+        assertEquals(MAX_AMOUNT - 1, theWarehouse.getPartCount(partCodeToFind * 7));
+    }
+
+    /**
+     * Test that an optimised pick route takes stock from the nearer locations and walks them in a short order.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(40)
+    void testCreatePickRoute()
+    {
+        Warehouse warehouse = new Warehouse(numRows, numColumns);
+        Warehouse scanned = new Warehouse(numRows, numColumns);
+        // Part 1 is both far away at (0,5) and near the depot at (4,0); part 2 is only at (1,0).
+        for (Warehouse w : List.of(warehouse, scanned)) {
+            w.addToWarehouse(new Location(0, 5), new Batch(1, 10));
+            w.addToWarehouse(new Location(1, 0), new Batch(2, 10));
+            w.addToWarehouse(new Location(4, 0), new Batch(1, 10));
+        }
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(1, 4));
+        order.getAllBatches().addBatch(new Batch(2, 3));
+        PickRouteOptimiser optimiser = new PickRouteOptimiser(new Location(4, 0), 1_000_000L);
+
+        PickRoute route = optimiser.plan(List.of(), Map.of(1, 4));
+        assertTrue(route.pickList().isEmpty());
+        assertEquals(0, route.length());
+
+        route = warehouse.createPickRoute(order, optimiser);
+        assertEquals(List.of(new Location(4, 0), new Location(1, 0)),
+                route.pickList().stream().map(PickListItem::theLocation).toList());
+        assertEquals(6, route.length());
+        assertEquals(route.length(), optimiser.lengthOf(route.pickList()));
+        assertEquals(16, warehouse.getPartCount(1));
+        assertEquals(7, warehouse.getPartCount(2));
+
+        // Scanning the grid takes part 1 from the far location instead.
+        List<PickListItem> pickList = scanned.createAPickList(order);
+        assertEquals(18, optimiser.lengthOf(pickList));
+    }
+
+    /**
+     * Test that pickers and receivers running at once on a ConcurrentWarehouse never lose or double-pick stock.
+     * Each thread picks random orders and stores what it picked back, while counting what it took and returned.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(41)
+    void testConcurrentPickingAndStoring() throws InterruptedException
+    {
+        final int numberOfParts = 40, threads = 8, rounds = 2000;
+        for (GridStorage storage : List.of(new ObjectGridStorage(20 * 30), new PackedGridStorage(20 * 30))) {
+            ConcurrentWarehouse warehouse = new ConcurrentWarehouse(20, 30, storage);
+            int[] initial = new int[numberOfParts + 1];
+            for (int partCode = 1; partCode <= numberOfParts; partCode++) {
+                for (int copy = 0; copy < 3; copy++) {
+                    warehouse.addToWarehouse(new Location((partCode - 1) / 2, (partCode % 2) * 15 + copy), new Batch(partCode, 300));
+                    initial[partCode] += 300;
+                }
+            }
+            java.util.concurrent.atomic.AtomicLongArray picked = new java.util.concurrent.atomic.AtomicLongArray(numberOfParts + 1);
+            java.util.concurrent.atomic.AtomicLongArray stored = new java.util.concurrent.atomic.AtomicLongArray(numberOfParts + 1);
+            java.util.concurrent.ConcurrentLinkedQueue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+            java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                Random random = new Random(thread);
+                workers.add(new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int round = 0; round < rounds; round++) {
+                            CustomerOrder order = new CustomerOrder(round, customerCode, orderDate, false);
+                            for (int line = 0; line < 1 + random.nextInt(3); line++) {
+                                order.getAllBatches().addBatch(new Batch(1 + random.nextInt(numberOfParts), 1 + random.nextInt(400)));
+                            }
+                            List<PickListItem> pickList = round % 2 == 0
+                                    ? warehouse.createAPickList(order)
+                                    : warehouse.createPickRoute(order, new PickRouteOptimiser(new Location(0, 0), 0)).pickList();
+                            Delivery returns = new Delivery(round, orderDate, false);
+                            for (PickListItem item : pickList) {
+                                picked.addAndGet(item.theBatch().getPartCode(), item.theBatch().getQuantity());
+                                returns.getAllBatches().addBatch(new Batch(item.theBatch().getPartCode(), item.theBatch().getQuantity()));
+                            }
+                            // Hold some stock back for a while so that the totals keep moving.
+                            if (random.nextInt(4) != 0) {
+                                warehouse.storeDelivery(returns);
+                                for (Batch batch : returns.getAllBatches().getBatches()) {
+                                    stored.addAndGet(batch.getPartCode(), batch.getQuantity());
+                                }
+                            }
+                            warehouse.getPartCount(1 + random.nextInt(numberOfParts));
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            assertTrue(failures.isEmpty(), failures.toString());
+            warehouse.verifyIndexes();
+            for (int partCode = 1; partCode <= numberOfParts; partCode++) {
+                assertTrue(picked.get(partCode) > 0);
+                assertEquals(initial[partCode] - picked.get(partCode) + stored.get(partCode), warehouse.getPartCount(partCode),
+                        "Part " + partCode);
+            }
+        }
+    }
+
+    /**
+     * Test that a reservation holds the stock for its order until it is committed or released.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(42)
+    void testReserve()
+    {
+        int total = theWarehouse.getPartCount(partCodeToFind);
+        CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+        order.getAllBatches().addBatch(new Batch(partCodeToFind, total - 1));
+        CustomerOrder other = new CustomerOrder(2, customerCode, orderDate, false);
+        other.getAllBatches().addBatch(new Batch(partCodeToFind, 2));
+
+        Reservation reservation = theWarehouse.reserve(order);
+        assertNotNull(reservation);
+        assertTrue(reservation.isOpen());
+        assertEquals(total, theWarehouse.getPartCount(partCodeToFind));
+        assertEquals(1, theWarehouse.getAvailableCount(partCodeToFind));
+        // Nothing else can have the held stock.
+        assertFalse(theWarehouse.canBeFilled(other));
+        assertNull(theWarehouse.reserve(other));
+        List<PickListItem> partial = theWarehouse.createAPickList(other);
+        assertEquals(1, partial.size());
+        assertEquals(1, partial.get(0).theBatch().getQuantity());
+        assertEquals(0, theWarehouse.getAvailableCount(partCodeToFind));
+        assertFalse(OrderShortfall.afterPicking(other, partial).canBeFilled());
+        // The held stock cannot be replaced out from under the reservation.
+        Location heldLocation = theWarehouse.findPart(partCodeToFind).get(0);
+        assertThrows(IllegalStateException.class, () -> theWarehouse.addToWarehouse(heldLocation, null));
+        assertEquals(total - 1, theWarehouse.getPartCount(partCodeToFind));
+
+        List<PickListItem> pickList = reservation.commit();
+        int picked = 0;
+        for (PickListItem item : pickList) {
+            picked += item.theBatch().getQuantity();
+        }
+        assertEquals(total - 1, picked);
+        assertFalse(reservation.isOpen());
+        assertThrows(IllegalStateException.class, reservation::commit);
+        assertThrows(IllegalStateException.class, reservation::release);
+        assertEquals(0, theWarehouse.getPartCount(partCodeToFind));
+
+        // Releasing gives the stock back without touching the grid.
+        Reservation released = theWarehouse.reserve(new CustomerOrder(3, customerCode, orderDate, false));
+        assertNotNull(released);
+        released.release();
+        CustomerOrder another = new CustomerOrder(4, customerCode, orderDate, false);
+        another.getAllBatches().addBatch(new Batch(partCodeToFind * 7, MAX_AMOUNT));
+        Reservation held = theWarehouse.reserve(another);
+        held.release();
+        assertEquals(MAX_AMOUNT, theWarehouse.getAvailableCount(partCodeToFind * 7));
+        assertEquals(MAX_AMOUNT, theWarehouse.getPartCount(partCodeToFind * 7));
+    }
+
+    /**
+     * Test that orders reserved and committed from many threads at once never take more than is in stock.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(43)
+    void testConcurrentReservations() throws InterruptedException
+    {
+        final int numberOfParts = 10, stock = 1000, threads = 8;
+        ConcurrentWarehouse warehouse = new ConcurrentWarehouse(numRows, numColumns);
+        for (int partCode = 1; partCode <= numberOfParts; partCode++) {
+            warehouse.storeDelivery(deliveryOf(partCode, stock));
+        }
+        java.util.concurrent.atomic.AtomicLongArray picked = new java.util.concurrent.atomic.AtomicLongArray(numberOfParts + 1);
+        java.util.concurrent.ConcurrentLinkedQueue<Throwable> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            Random random = new Random(thread);
+            workers.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 2000; round++) {
+                        CustomerOrder order = new CustomerOrder(round, customerCode, orderDate, false);
+                        order.getAllBatches().addBatch(new Batch(1 + random.nextInt(numberOfParts), 1 + random.nextInt(20)));
+                        order.getAllBatches().addBatch(new Batch(1 + random.nextInt(numberOfParts), 1 + random.nextInt(20)));
+                        Reservation reservation = warehouse.reserve(order);
+                        if (reservation == null) {
+                            continue;
+                        }
+                        if (random.nextBoolean()) {
+                            reservation.release();
+                            continue;
+                        }
+                        Map<Integer, Integer> pickedForOrder = new HashMap<>();
+                        for (PickListItem item : reservation.commit()) {
+                            pickedForOrder.merge(item.theBatch().getPartCode(), item.theBatch().getQuantity(), Integer::sum);
+                            picked.addAndGet(item.theBatch().getPartCode(), item.theBatch().getQuantity());
+                        }
+                        assertEquals(reservation.getQuantities(), pickedForOrder);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertTrue(failures.isEmpty(), failures.toString());
+        warehouse.verifyIndexes();
+        for (int partCode = 1; partCode <= numberOfParts; partCode++) {
+            assertEquals(stock - picked.get(partCode), warehouse.getPartCount(partCode));
+            assertEquals(warehouse.getPartCount(partCode), warehouse.getAvailableCount(partCode));
+        }
+    }
+
+    /**
+     * Test that the shortfalls of a batch of orders agree with canBeFilled and createPurchaseOrder, on one thread
+     * for a few orders and in parallel for many.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(44)
+    void testFindShortfalls()
+    {
+        List<CustomerOrder> orders = new ArrayList<>();
+        for (int orderNumber = 0; orderNumber < 5000; orderNumber++) {
+            CustomerOrder order = new CustomerOrder(orderNumber, customerCode, orderDate, false);
+            order.getAllBatches().addBatch(new Batch(partCodeToFind, rand.nextInt(30)));
+            order.getAllBatches().addBatch(new Batch(partCodeToFind * 7, rand.nextInt(2 * MAX_AMOUNT)));
+            order.getAllBatches().addBatch(new Batch(partCodeToFind * 11, 1 + rand.nextInt(5)));
+            orders.add(order);
+        }
+        // Held stock counts as missing.
+        CustomerOrder held = new CustomerOrder(-1, customerCode, orderDate, false);
+        held.getAllBatches().addBatch(new Batch(partCodeToFind, 1));
+        assertNotNull(theWarehouse.reserve(held));
+
+        for (List<CustomerOrder> batch : List.of(orders.subList(0, 10), orders)) {
+            List<OrderShortfall> shortfalls = theWarehouse.findShortfalls(batch);
+            assertEquals(batch.size(), shortfalls.size());
+            for (int index = 0; index < batch.size(); index++) {
+                OrderShortfall shortfall = shortfalls.get(index);
+                CustomerOrder order = batch.get(index);
+                assertSame(order, shortfall.order());
+                assertEquals(theWarehouse.canBeFilled(order), shortfall.canBeFilled());
+                for (Batch line : order.getAllBatches().getBatches()) {
+                    int missing = line.getQuantity() - theWarehouse.getAvailableCount(line.getPartCode());
+                    assertEquals(missing > 0 ? missing : null, shortfall.shortfall().get(line.getPartCode()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the consolidated purchase order covers the open orders after stock and incoming orders,
+     * in whole locations.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(45)
+    void testCreateConsolidatedPurchaseOrder()
+    {
+        int inStock = theWarehouse.getPartCount(partCodeToFind);
+        CustomerOrder first = new CustomerOrder(1, customerCode, orderDate, false);
+        first.getAllBatches().addBatch(new Batch(partCodeToFind, inStock + 300));
+        first.getAllBatches().addBatch(new Batch(partCodeToFind * 7, 100));
+        CustomerOrder second = new CustomerOrder(2, customerCode, orderDate, false);
+        second.getAllBatches().addBatch(new Batch(partCodeToFind, 400));
+        second.getAllBatches().addBatch(new Batch(partCodeToFind * 13, 1200));
+        CustomerOrder done = new CustomerOrder(3, customerCode, orderDate, true);
+        done.getAllBatches().addBatch(new Batch(partCodeToFind * 17, 100));
+        PurchaseOrder onOrder = new PurchaseOrder(10, orderDate, false);
+        onOrder.getAllBatches().addBatch(new Batch(partCodeToFind, 200));
+        PurchaseOrder received = new PurchaseOrder(11, orderDate, true);
+        received.getAllBatches().addBatch(new Batch(partCodeToFind * 13, 5000));
+        // The delivery is the stock of the open purchase order for the same part, so it is only counted once.
+        PurchaseOrder delivering = new PurchaseOrder(12, orderDate, false);
+        delivering.getAllBatches().addBatch(new Batch(partCodeToFind * 13, 100));
+        Delivery arriving = new Delivery(20, orderDate, false);
+        arriving.getAllBatches().addBatch(new Batch(partCodeToFind * 13, 100));
+
+        PurchaseOrder purchaseOrder = theWarehouse.createConsolidatedPurchaseOrder(List.of(first, second, done),
+                List.of(onOrder, received, delivering), List.of(arriving));
+
+        // 700 short less 200 on order is one location; 1100 short after the delivery is three.
+        Map<Integer, Integer> ordered = new HashMap<>();
+        for (Batch batch : purchaseOrder.getAllBatches().getBatches()) {
+            ordered.put(batch.getPartCode(), batch.getQuantity());
+        }
+        assertEquals(Map.of(partCodeToFind, MAX_AMOUNT, partCodeToFind * 13, 3 * MAX_AMOUNT), ordered);
+        assertNull(theWarehouse.createConsolidatedPurchaseOrder(List.of(done), List.of(), List.of()));
+    }
+
+    /**
+     * Test that the warehouse is rebuilt from its snapshot and journal, ignoring a frame torn by a crash.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(46)
+    void testJournalRecovery() throws IOException
+    {
+        Path directory = Files.createTempDirectory("journal");
+        try (WarehouseJournal journal = new WarehouseJournal(directory, 0, Long.MAX_VALUE)) {
+            journal.attach(theWarehouse);
+            theWarehouse.storeDelivery(deliveryOf(partCodeToFind, MAX_AMOUNT + 10));
+            CustomerOrder order = new CustomerOrder(1, customerCode, orderDate, false);
+            order.getAllBatches().addBatch(new Batch(partCodeToFind, 3));
+            theWarehouse.createAPickList(order);
+            theWarehouse.addToWarehouse(locationToNotFind, null);
+            journal.sync();
+            assertEquals(contentsOf(theWarehouse), contentsOf(recovered(directory)));
+
+            // A snapshot replaces the journal, and later changes are replayed on top of it.
+            journal.snapshot();
+            // The snapshot is an ordinary WarehouseSnapshot, stamped with the generation it starts.
+            assertEquals(contentsOf(theWarehouse), contentsOf(WarehouseSnapshot.read(
+                    directory.resolve("journal.snapshot"), 2, new ObjectGridStorage(numRows * numColumns))));
+            theWarehouse.addToWarehouse(new Location(0, 1), new Batch(partCodeToFind * 3, 9));
+            Map<Location, List<Integer>> expected = contentsOf(theWarehouse);
+            journal.sync();
+            // Half a frame, as a crash part way through writing one would leave.
+            theWarehouse.storeDelivery(deliveryOf(partCodeToFind * 3, 1));
+            Path journalFile;
+            try (Stream<Path> files = Files.list(directory)) {
+                journalFile = files.filter(file -> file.getFileName().toString().startsWith("warehouse.journal."))
+                        .findFirst().orElseThrow();
+            }
+            Files.write(journalFile, new byte[] {0, 0, 0, 13, 1, 2, 3},
+                    StandardOpenOption.APPEND);
+            assertEquals(expected, contentsOf(recovered(directory)));
+        }
+        Warehouse wrongSize = new Warehouse(numRows + 1, numColumns);
+        assertThrows(IOException.class, () -> new WarehouseJournal(directory, 0, 0).recover(wrongSize));
+        assertFalse(new WarehouseJournal(Files.createTempDirectory("journal"), 0, 0)
+                .recover(new Warehouse(numRows, numColumns)));
+    }
+
+    /**
+     * Test that a snapshot loads back the same warehouse, and is refused if it is damaged or out of date.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(47)
+    void testWarehouseSnapshot() throws IOException
+    {
+        Path file = Files.createTempDirectory("snapshot").resolve("warehouse.snapshot");
+        WarehouseSnapshot.write(theWarehouse, file, 42);
+        Warehouse loaded = WarehouseSnapshot.read(file, 42, new PackedGridStorage(numRows * numColumns));
+        assertEquals(contentsOf(theWarehouse), contentsOf(loaded));
+        loaded.verifyIndexes();
+        assertEquals(theWarehouse.getPartCount(partCodeToFind), loaded.getPartCount(partCodeToFind));
+        assertEquals(theWarehouse.freeSlotCount(), loaded.freeSlotCount());
+
+        assertThrows(IOException.class, () -> WarehouseSnapshot.read(file, 43, new ObjectGridStorage(numRows * numColumns)));
+        assertThrows(IllegalArgumentException.class, () -> WarehouseSnapshot.read(file, 42, new ObjectGridStorage(1)));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> WarehouseSnapshot.read(file, 42, new ObjectGridStorage(numRows * numColumns)));
+    }
+
+    /**
+     * Test that pages whose queries fail are not counted as written, so the table versions are not saved
+     * and the pages are written again next time even if their tables do not change.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(48)
+    void testFailedPageKeepsTableVersions() throws IOException, InterruptedException
+    {
+        Path site = Files.createTempDirectory("site");
+        String siteAddress = site + "/";
+        String versionsFile = siteAddress + webview.converter.Config.TABLE_VERSIONS;
+        Map<String, String> saved = new HashMap<>();
+        Map<String, String> current = new HashMap<>();
+        for (String table : webview.converter.Page.allTables()) {
+            saved.put(table, "1:1");
+            current.put(table, "1:2");
+        }
+        webview.converter.TableVersions.save(versionsFile, saved);
+        Path page = site.resolve(webview.converter.Page.ALL.get(0).fileName());
+        Files.writeString(page, "<html>written last time</html>");
+        // There is no database to read, so every query fails.
+        try (webview.converter.DatabaseReader reader =
+                     new webview.converter.DatabaseReader(site.resolve("missing.sqlite").toString(), true)) {
+            assertThrows(IOException.class, () -> reader.forEachRow("select * from parts", row -> { }));
+            assertFalse(webview.ConvertToHTML.writeChangedPages(reader, current, true, siteAddress, false));
+        }
+        assertEquals(saved, webview.converter.TableVersions.load(versionsFile));
+        // The page that failed is left as it was, rather than cut short.
+        assertEquals("<html>written last time</html>", Files.readString(page));
+        try (Stream<Path> files = Files.list(site)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    /**
+     * Test that changes made by several threads at once all reach the warehouse table through the write-behind
+     * queue, even when one thread's changes are made while another's are being queued.
+     * Runs against a copy of the database.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(49)
+    void testWriteBehindKeepsConcurrentChanges() throws Exception
+    {
+        Path database = Files.createTempDirectory("writeBehind").resolve("warehousedata.sqlite");
+        Files.copy(Path.of("warehousedata.sqlite"), database);
+        ConcurrentWarehouse warehouse = new ConcurrentWarehouse(20, 30);
+        try (DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), false)) {
+            List<Integer> orderNumbers = new ArrayList<>(databaseHandler.loadCustomerOrders(false).getOrderNumbers());
+            // Start the queue before the threads share it.
+            databaseHandler.queueWarehouseFromCustomerOrder(warehouse, orderNumbers.get(0));
+            int threads = 4, changes = 300;
+            List<Thread> workers = new ArrayList<>();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            for (int thread = 0; thread < threads; thread++) {
+                int row = thread;
+                workers.add(new Thread(() -> {
+                    try {
+                        for (int change = 0; change < changes; change++) {
+                            Location location = new Location(row, change % 30);
+                            warehouse.addToWarehouse(location, change % 7 == 0 ? null : new Batch(row + 1, change + 1));
+                            if (change % 2 == 1) {
+                                databaseHandler.queueWarehouseFromCustomerOrder(warehouse,
+                                        orderNumbers.get((row * changes + change) % orderNumbers.size()));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(List.of(), failures);
+            databaseHandler.flush();
+            assertEquals(contentsOf(warehouse), contentsOf(databaseHandler.readWarehouse()));
+        }
+    }
+
+    /**
+     * Test that an update fulfilling an order that is not in the database is not written, and that flushing
+     * reports it rather than the stock change being written with the order left open.
+     * Runs against a copy of the database.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(50)
+    void testWriteBehindStopsOnMissingOrder() throws Exception
+    {
+        Path database = Files.createTempDirectory("writeBehind").resolve("warehousedata.sqlite");
+        Files.copy(Path.of("warehousedata.sqlite"), database);
+        DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), false);
+        Warehouse warehouse = databaseHandler.readWarehouse();
+        warehouse.addToWarehouse(new Location(0, 0), null);
+        databaseHandler.queueWarehouseFromCustomerOrder(warehouse, -1);
+        SQLException failure = assertThrows(SQLException.class, databaseHandler::flush);
+        assertTrue(failure.getMessage().contains("customerOrders where orderNumber = -1"));
+        warehouse.addToWarehouse(new Location(0, 1), null);
+        assertThrows(IllegalStateException.class,
+                () -> databaseHandler.queueWarehouseFromCustomerOrder(warehouse, 1));
+        // The rejected changes are still waiting to be written.
+        assertTrue(warehouse.getChangedLocations().contains(new Location(0, 1)));
+        // Closing reports the updates that were never written.
+        assertThrows(SQLException.class, databaseHandler::close);
+    }
+
+    /**
+     * Test that a warehouse snapshot is not used once the warehouse table has changed, even by a change that
+     * leaves the size of the database file the same, and that one taken after the change is.
+     * Runs against a copy of the database.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(51)
+    void testWarehouseSnapshotFollowsTable() throws Exception
+    {
+        Path directory = Files.createTempDirectory("snapshot");
+        Path database = directory.resolve("warehousedata.sqlite");
+        Path snapshot = directory.resolve("warehouse.snapshot");
+        Files.copy(Path.of("warehousedata.sqlite"), database);
+        // Opening the database does not change it; the version is only kept once a snapshot is used.
+        new DatabaseHandler(database.toString(), false).close();
+        try (java.sql.Connection connection = java.sql.DriverManager.getConnection("jdbc:sqlite:" + database);
+             java.sql.Statement statement = connection.createStatement();
+             java.sql.ResultSet tables = statement.executeQuery(
+                     "select count(*) from sqlite_master where name = 'tableVersions'")) {
+            assertTrue(tables.next());
+            assertEquals(0, tables.getInt(1));
+        }
+        try (DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), false)) {
+            Warehouse fromTable = databaseHandler.readWarehouse(snapshot);
+            assertTrue(Files.exists(snapshot));
+            assertEquals(contentsOf(fromTable), contentsOf(databaseHandler.readWarehouse(snapshot)));
+
+            // Another program changes a quantity in place.
+            try (java.sql.Connection connection = java.sql.DriverManager.getConnection("jdbc:sqlite:" + database);
+                 java.sql.Statement statement = connection.createStatement()) {
+                statement.executeUpdate(
+                        "update warehouse set quantity = quantity + 1 where rowid = (select min(rowid) from warehouse)");
+            }
+            Warehouse changed = databaseHandler.readWarehouse(snapshot);
+            assertNotEquals(contentsOf(fromTable), contentsOf(changed));
+            assertEquals(contentsOf(databaseHandler.readWarehouse()), contentsOf(changed));
+            assertTrue(databaseHandler.writeWarehouseSnapshot(changed, snapshot));
+        }
+        try (DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), false)) {
+            Warehouse loaded = databaseHandler.readWarehouse(snapshot);
+            assertEquals(contentsOf(databaseHandler.readWarehouse()), contentsOf(loaded));
+        }
+    }
+
+    /**
+     * Test that a failed write to the journal is reported until a snapshot saves the changes it lost.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(52)
+    void testJournalRecoversFromFailedWrite() throws IOException
+    {
+        Path directory = Files.createTempDirectory("journal");
+        try (WarehouseJournal journal = new WarehouseJournal(directory, 0, Long.MAX_VALUE)) {
+            journal.attach(theWarehouse);
+            theWarehouse.storeDelivery(deliveryOf(partCodeToFind, MAX_AMOUNT));
+            // Writing on an interrupted thread fails and closes the journal file.
+            Thread.currentThread().interrupt();
+            assertThrows(IOException.class, journal::sync);
+            Thread.interrupted();
+            theWarehouse.storeDelivery(deliveryOf(partCodeToFind * 3, 1));
+            assertThrows(IOException.class, journal::sync);
+
+            assertTrue(journal.snapshotIfDue());
+            theWarehouse.addToWarehouse(new Location(0, 1), new Batch(partCodeToFind * 3, 9));
+            journal.sync();
+            assertEquals(contentsOf(theWarehouse), contentsOf(recovered(directory)));
+        }
+    }
+
+    /**
+     * Test that the write report counts deleted rows apart from written ones, so saving an empty warehouse
+     * writes nothing, and rewriting one location deletes one row and writes one.
+     * Runs against a copy of the database.
+     */
+    @Test
+    @org.junit.jupiter.api.Order(53)
+    void testWriteReportCountsDeletes() throws Exception
+    {
+        Path database = Files.createTempDirectory("writeReport").resolve("warehousedata.sqlite");
+        Files.copy(Path.of("warehousedata.sqlite"), database);
+        try (DatabaseHandler databaseHandler = new DatabaseHandler(database.toString(), false)) {
+            Warehouse warehouse = databaseHandler.readWarehouse();
+            List<Location> occupied = warehouse.getPartLocations();
+            warehouse.addToWarehouse(occupied.get(0), new Batch(partCodeToFind, 1));
+            WarehouseWriteReport rewritten = databaseHandler.beginUnitOfWork(warehouse).commit();
+            assertEquals(1, rewritten.rowsWritten());
+            assertEquals(1, rewritten.rowsDeleted());
+
+            WarehouseWriteReport emptied = databaseHandler.beginUnitOfWork(new Warehouse(numRows, numColumns)).commit();
+            assertEquals(0, emptied.rowsWritten());
+            assertEquals(occupied.size(), emptied.rowsDeleted());
+            assertEquals(emptied, databaseHandler.getLastWarehouseWrite());
+        }
+    }
+
+    /**
+     * Rebuild a warehouse from the journal in the given directory.
+     * @param directory The directory.
+     * @return The warehouse.
+     */
+    private Warehouse recovered(Path directory) throws IOException
+    {
+        Warehouse warehouse = new Warehouse(numRows, numColumns);
+        assertTrue(new WarehouseJournal(directory, 0, 0).recover(warehouse));
+        return warehouse;
+    }
+
+    /**
+     * Get the part code and quantity at each occupied location of a warehouse.
+     * @param warehouse The warehouse.
+     * @return The contents.
+     */
+    private Map<Location, List<Integer>> contentsOf(Warehouse warehouse)
+    {
+        Map<Location, List<Integer>> contents = new HashMap<>();
+        for (Location location : warehouse.getPartLocations()) {
+            Batch batch = warehouse.getBatchAt(location);
+            contents.put(location, List.of(batch.getPartCode(), batch.getQuantity()));
+        }
+        return contents;
+    }
+
+    /**
+     * Create a delivery of a single part.
+     * @param partCode The part code.
+     * @param quantity The quantity delivered.
+     * @return The delivery.
+     */
+    private Delivery deliveryOf(int partCode, int quantity)
+    {
+        Delivery delivery = new Delivery(partCode, orderDate, false);
+        delivery.getAllBatches().addBatch(new Batch(partCode, quantity));
+        return delivery;
+    }
+
+}